@@ -0,0 +1,145 @@
+//Pipeline.java
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+
+// The compiler's stages, called through method handles. Its classes are in the unnamed package,
+// which a named package cannot import, and JMH will not run benchmarks from the unnamed package.
+// The handles are static final, so the JIT inlines them like direct calls. Compiler objects are
+// passed around as Object.
+final class Pipeline {
+    static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    static final MethodHandle NEW_GENERATOR = constructor("ProgramGenerator", int.class, int.class, int.class, double.class, long.class);
+    static final MethodHandle GENERATE = method("ProgramGenerator", "generate", String.class);
+    static final MethodHandle NEW_SCANNER = constructor("Scanner", String.class);
+    static final MethodHandle NEW_READER_SCANNER = constructor("Scanner", type("CharacterReader"));
+    static final MethodHandle READ_FILE = function("CharacterReader", "fromFile", type("CharacterReader"), Path.class);
+    static final MethodHandle GET_TOKENS = method("Scanner", "getTokens", type("[LToken;"));
+    static final MethodHandle GET_PACKED_TOKENS = method("Scanner", "getPackedTokens", type("PackedTokens"));
+    static final MethodHandle TOKEN_COUNT = field("PackedTokens", "count", int.class);
+    static final MethodHandle SYMBOLS_FROM_TOKENS = function("SymbolTable", "buildFromTokens", type("SymbolTable"), type("[LToken;"));
+    static final MethodHandle SYMBOLS_FROM_PACKED = function("SymbolTable", "buildFromTokens", type("SymbolTable"), type("PackedTokens"));
+    static final MethodHandle PARSE = function("Parser", "parse", type("SyntaxTree"), type("PackedTokens"));
+    static final MethodHandle GENERATE_QUADS = function("CodeGenerator", "generate", type("Quads"), type("SyntaxTree"), type("SymbolTable"));
+    static final MethodHandle OPTIMIZE = function("Optimizer", "optimize", int.class, type("Quads"));
+    static final MethodHandle WRITE_TOKENS = function("TokenWriter", "writeToFile", void.class, type("PackedTokens"), String.class);
+    static final MethodHandle WRITE_SYMBOL_TABLE = function("SymbolTableWriter", "writeToFile", void.class, type("SymbolTable"), String.class);
+    static final MethodHandle COMPILE_FILE = function("Scanner", "compileFile", int.class, Path.class, String.class, String.class);
+
+    static String generateProgram(int size, int identifierWeight, int numberWeight, double commentChance, long seed) throws Throwable {
+        Object generator = (Object) NEW_GENERATOR.invokeExact(size, identifierWeight, numberWeight, commentChance, seed);
+        return (String) GENERATE.invokeExact(generator);
+    }
+
+    static Object scanTokens(String source) throws Throwable {
+        return (Object) GET_TOKENS.invokeExact((Object) NEW_SCANNER.invokeExact(source));
+    }
+
+    static Object scanPacked(String source) throws Throwable {
+        return (Object) GET_PACKED_TOKENS.invokeExact((Object) NEW_SCANNER.invokeExact(source));
+    }
+
+    static Object scanFile(Path sourceFile) throws Throwable {
+        Object reader = (Object) READ_FILE.invokeExact(sourceFile);
+        return (Object) GET_PACKED_TOKENS.invokeExact((Object) NEW_READER_SCANNER.invokeExact(reader));
+    }
+
+    static int tokenCount(Object packedTokens) throws Throwable {
+        return (int) TOKEN_COUNT.invokeExact(packedTokens);
+    }
+
+    static Object symbolTable(Object tokens) throws Throwable {
+        return (Object) SYMBOLS_FROM_TOKENS.invokeExact(tokens);
+    }
+
+    static Object symbolTableFromPacked(Object packedTokens) throws Throwable {
+        return (Object) SYMBOLS_FROM_PACKED.invokeExact(packedTokens);
+    }
+
+    static Object parse(Object packedTokens) throws Throwable {
+        return (Object) PARSE.invokeExact(packedTokens);
+    }
+
+    static Object generateQuads(Object tree, Object symbolTable) throws Throwable {
+        return (Object) GENERATE_QUADS.invokeExact(tree, symbolTable);
+    }
+
+    static int optimize(Object quads) throws Throwable {
+        return (int) OPTIMIZE.invokeExact(quads);
+    }
+
+    static void writeTokens(Object packedTokens, String file) throws Throwable {
+        WRITE_TOKENS.invokeExact(packedTokens, file);
+    }
+
+    static void writeSymbolTable(Object symbolTable, String file) throws Throwable {
+        WRITE_SYMBOL_TABLE.invokeExact(symbolTable, file);
+    }
+
+    static int compileFile(Path sourceFile, String tokensFile, String symbolTableFile) throws Throwable {
+        return (int) COMPILE_FILE.invokeExact(sourceFile, tokensFile, symbolTableFile);
+    }
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name, false, Pipeline.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Compiler class " + name + " is not on the class path", e);
+        }
+    }
+
+    // Full access to a compiler class; the unnamed package is open to every module
+    static MethodHandles.Lookup lookupIn(String className) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(type(className), LOOKUP);
+    }
+
+    // Every compiler type in the handle's signature becomes Object, so callers need not name it
+    static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (!type.parameterType(i).isPrimitive() && type.parameterType(i).getClassLoader() != null) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (!type.returnType().isPrimitive() && type.returnType().getClassLoader() != null) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    static MethodHandle constructor(String className, Class<?>... parameters) {
+        try {
+            return erase(lookupIn(className).findConstructor(type(className), MethodType.methodType(void.class, parameters)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No constructor for " + className, e);
+        }
+    }
+
+    static MethodHandle method(String className, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            return erase(lookupIn(className).findVirtual(type(className), name, MethodType.methodType(returnType, parameters)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No method " + className + "." + name, e);
+        }
+    }
+
+    static MethodHandle function(String className, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            return erase(lookupIn(className).findStatic(type(className), name, MethodType.methodType(returnType, parameters)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No method " + className + "." + name, e);
+        }
+    }
+
+    static MethodHandle field(String className, String name, Class<?> fieldType) {
+        try {
+            return erase(lookupIn(className).findGetter(type(className), name, fieldType));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No field " + className + "." + name, e);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+//StageBenchmarks.java
+package bench;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One benchmark per pipeline stage, each over a whole generated program. Besides ops/s, every
+// benchmark reports tokens and bytes as rates (tokens/s and bytes/s of source); run with
+// -prof gc for the allocation rate and bytes allocated per op.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StageBenchmarks {
+    // Program size and mix, as taken by ProgramGenerator
+    @Param({"64", "1024"})
+    int sizeKB;
+    @Param("3")
+    int identifierWeight;
+    @Param("1")
+    int numberWeight;
+    @Param("0.2")
+    double commentChance;
+
+    String source;
+    Path sourceFile;
+    Path tokensFile;
+    Path symbolTableFile;
+    int tokenCount;
+    Object tokens;
+    Object packedTokens;
+    Object symbolTable;
+    Object tree;
+    // Code generation adds its temps to the table it is given, so it gets a table of its own
+    Object codeSymbolTable;
+
+    // Work done per op, reported by JMH as rates next to ops/s
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long tokens;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void generate() throws Throwable {
+        source = Pipeline.generateProgram(sizeKB * 1024, identifierWeight, numberWeight, commentChance, 42);
+        sourceFile = Files.createTempFile("bench", ".txt");
+        tokensFile = Files.createTempFile("bench", ".tokens.txt");
+        symbolTableFile = Files.createTempFile("bench", ".symbol_table.txt");
+        Files.writeString(sourceFile, source, StandardCharsets.US_ASCII);
+        tokens = Pipeline.scanTokens(source);
+        packedTokens = Pipeline.scanPacked(source);
+        tokenCount = Pipeline.tokenCount(packedTokens);
+        symbolTable = Pipeline.symbolTableFromPacked(packedTokens);
+        tree = Pipeline.parse(packedTokens);
+        codeSymbolTable = Pipeline.symbolTableFromPacked(packedTokens);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws Exception {
+        Files.deleteIfExists(sourceFile);
+        Files.deleteIfExists(tokensFile);
+        Files.deleteIfExists(symbolTableFile);
+    }
+
+    void count(Throughput throughput) {
+        throughput.tokens += tokenCount;
+        throughput.bytes += source.length();
+    }
+
+    @Benchmark
+    public Object scanTokens(Throughput throughput) throws Throwable {
+        count(throughput);
+        return Pipeline.scanTokens(source);
+    }
+
+    @Benchmark
+    public Object scanPacked(Throughput throughput) throws Throwable {
+        count(throughput);
+        return Pipeline.scanPacked(source);
+    }
+
+    @Benchmark
+    public Object scanMappedFile(Throughput throughput) throws Throwable {
+        count(throughput);
+        return Pipeline.scanFile(sourceFile);
+    }
+
+    @Benchmark
+    public Object symbolTable(Throughput throughput) throws Throwable {
+        count(throughput);
+        return Pipeline.symbolTable(tokens);
+    }
+
+    @Benchmark
+    public Object symbolTablePacked(Throughput throughput) throws Throwable {
+        count(throughput);
+        return Pipeline.symbolTableFromPacked(packedTokens);
+    }
+
+    @Benchmark
+    public Object parse(Throughput throughput) throws Throwable {
+        count(throughput);
+        return Pipeline.parse(packedTokens);
+    }
+
+    @Benchmark
+    public Object generateQuads(Throughput throughput) throws Throwable {
+        count(throughput);
+        return Pipeline.generateQuads(tree, codeSymbolTable);
+    }
+
+    // Optimizing changes the quads, so each op generates them again
+    @Benchmark
+    public int generateAndOptimize(Throughput throughput) throws Throwable {
+        count(throughput);
+        return Pipeline.optimize(Pipeline.generateQuads(tree, codeSymbolTable));
+    }
+
+    @Benchmark
+    public void writeTokens(Throughput throughput) throws Throwable {
+        count(throughput);
+        Pipeline.writeTokens(packedTokens, tokensFile.toString());
+    }
+
+    @Benchmark
+    public void writeSymbolTable(Throughput throughput) throws Throwable {
+        count(throughput);
+        Pipeline.writeSymbolTable(symbolTable, symbolTableFile.toString());
+    }
+
+    @Benchmark
+    public int compileFile(Throughput throughput) throws Throwable {
+        count(throughput);
+        return Pipeline.compileFile(sourceFile, tokensFile.toString(), symbolTableFile.toString());
+    }
+}
@@ -0,0 +1,223 @@
+//BatchCompiler.java
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Compiles many source files in one JVM on a bounded worker pool.
+// Usage: BatchCompiler [-o outputDir] [-j threads] [--cache cacheDir] <file | directory | glob>...
+// Each input X.txt gets X.tokens.txt and X.symbol_table.txt, next to it or in outputDir.
+// Directories and globs only pick up .txt sources, never files the compiler wrote; a batch where
+// two inputs would write the same output files is refused before anything is compiled.
+// With --cache, unchanged sources are loaded from a CompileCache instead of being scanned.
+public class BatchCompiler {
+    static final String SOURCE_EXTENSION = ".txt";
+    // What the compiler writes, which shares the source extension: X.tokens.txt and friends, and
+    // the fixed names Scanner.main writes for Program_Text.txt
+    static final String[] OUTPUT_SUFFIXES = {".tokens.txt", ".symbol_table.txt"};
+    static final String[] OUTPUT_NAMES = {"tokens.txt", "symbol_table.txt"};
+
+    // Outcome of compiling one file
+    static class FileResult {
+        Path sourceFile;
+        long bytes;
+        int tokens;
+        IOException failure;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path outputDir = null;
+        CompileCache cache = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> sources = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length) {
+                outputDir = Path.of(args[++i]);
+            } else if (args[i].equals("-j") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cache = new CompileCache(Path.of(args[++i]), CompileCache.DEFAULT_MAX_BYTES);
+            } else {
+                addSources(args[i], sources);
+            }
+        }
+        if (sources.isEmpty()) {
+            System.err.println("Usage: BatchCompiler [-o outputDir] [-j threads] [--cache cacheDir] <file | directory | glob>...");
+            System.exit(2);
+        }
+        sources = distinct(sources);
+        String collision = findCollision(sources, outputDir);
+        if (collision != null) {
+            System.err.println(collision);
+            System.exit(2);
+        }
+        if (outputDir != null) {
+            Files.createDirectories(outputDir);
+        }
+
+        long startNanos = System.nanoTime();
+        List<FileResult> results = compileAll(sources, outputDir, cache, threads);
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        printSummary(results, elapsedNanos, threads);
+        if (cache != null) {
+            System.out.printf("%-12s %d hits, %d misses%n", "cache", cache.hits.get(), cache.misses.get());
+        }
+        for (FileResult result : results) {
+            if (result.failure != null) {
+                System.exit(1);
+            }
+        }
+    }
+
+    // Expands one argument: a directory means every source file in it, * or ? makes it a glob
+    // matching source files; a plain file is taken whatever its name
+    static void addSources(String argument, List<Path> sources) throws IOException {
+        if (argument.indexOf('*') >= 0 || argument.indexOf('?') >= 0) {
+            Path pattern = Path.of(argument);
+            Path directory = pattern.getParent() == null ? Path.of(".") : pattern.getParent();
+            PathMatcher matcher = directory.getFileSystem().getPathMatcher("glob:" + pattern.getFileName());
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (isSourceFile(entry) && matcher.matches(entry.getFileName())) {
+                        sources.add(entry);
+                    }
+                }
+            }
+            return;
+        }
+        Path path = Path.of(argument);
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                for (Path entry : entries) {
+                    if (isSourceFile(entry)) {
+                        sources.add(entry);
+                    }
+                }
+            }
+            return;
+        }
+        sources.add(path);
+    }
+
+    // A regular .txt file that no earlier run of the compiler wrote
+    static boolean isSourceFile(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.endsWith(SOURCE_EXTENSION) || !Files.isRegularFile(path)) {
+            return false;
+        }
+        for (String suffix : OUTPUT_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return false;
+            }
+        }
+        for (String outputName : OUTPUT_NAMES) {
+            if (name.equals(outputName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Sources in order with repeats dropped, e.g. a file named both directly and through a glob
+    static List<Path> distinct(List<Path> sources) {
+        Map<Path, Path> byLocation = new LinkedHashMap<>();
+        for (Path source : sources) {
+            byLocation.putIfAbsent(source.toAbsolutePath().normalize(), source);
+        }
+        return new ArrayList<>(byLocation.values());
+    }
+
+    // Output files of each source without their .tokens.txt / .symbol_table.txt suffix
+    static Path outputBase(Path source, Path outputDir) {
+        String baseName = source.getFileName().toString();
+        int dot = baseName.lastIndexOf('.');
+        if (dot > 0) {
+            baseName = baseName.substring(0, dot);
+        }
+        Path directory = outputDir != null ? outputDir : source.toAbsolutePath().getParent();
+        return directory.toAbsolutePath().normalize().resolve(baseName);
+    }
+
+    // Workers writing the same output file at once would interleave their bytes, so two sources
+    // with one output base, such as a/X.txt and b/X.txt under -o, are an error. Null if none clash.
+    static String findCollision(List<Path> sources, Path outputDir) {
+        Map<Path, Path> owners = new HashMap<>();
+        for (Path source : sources) {
+            Path base = outputBase(source, outputDir);
+            Path owner = owners.putIfAbsent(base, source);
+            if (owner != null) {
+                return "Both " + owner + " and " + source + " would be written to " + base + ".tokens.txt";
+            }
+        }
+        return null;
+    }
+
+    static List<FileResult> compileAll(List<Path> sources, Path outputDir, CompileCache cache, int threads) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<FileResult>> pending = new ArrayList<>(sources.size());
+            for (Path source : sources) {
+                pending.add(workers.submit(() -> compileOne(source, outputDir, cache)));
+            }
+            List<FileResult> results = new ArrayList<>(sources.size());
+            for (Future<FileResult> future : pending) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException failed) {
+                    throw new IllegalStateException("Batch worker failed", failed.getCause());
+                }
+            }
+            return results;
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    static FileResult compileOne(Path source, Path outputDir, CompileCache cache) {
+        FileResult result = new FileResult();
+        result.sourceFile = source;
+        String base = outputBase(source, outputDir).toString();
+        try {
+            result.bytes = Files.size(source);
+            String tokensFile = base + ".tokens.txt";
+            String symbolTableFile = base + ".symbol_table.txt";
+            result.tokens = cache != null ? cache.compileFile(source, tokensFile, symbolTableFile)
+                : Scanner.compileFile(source, tokensFile, symbolTableFile);
+        } catch (IOException ioException) {
+            result.failure = ioException;
+        }
+        return result;
+    }
+
+    static void printSummary(List<FileResult> results, long elapsedNanos, int threads) {
+        int compiled = 0;
+        long totalBytes = 0;
+        long totalTokens = 0;
+        for (FileResult result : results) {
+            if (result.failure != null) {
+                System.err.println("FAILED " + result.sourceFile + ": " + result.failure.getMessage());
+                continue;
+            }
+            compiled++;
+            totalBytes += result.bytes;
+            totalTokens += result.tokens;
+        }
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("Compiled %d of %d files on %d threads in %.3f s%n", compiled, results.size(), threads, seconds);
+        System.out.printf("%-12s %.1f%n", "files/s", compiled / seconds);
+        System.out.printf("%-12s %.0f%n", "tokens/s", totalTokens / seconds);
+        System.out.printf("%-12s %.2f%n", "MB/s", totalBytes / seconds / (1024 * 1024));
+    }
+}
@@ -0,0 +1,321 @@
+//BinaryFormat.java
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+// Compact binary file for a scanned token stream plus its symbol table, so later stages can load
+// a program without scanning it again. Tokens keep their source offsets, so a stream loaded over
+// the source it was scanned from works like a freshly scanned one: lexemes, line numbers and
+// IncrementalScanner edits all read the source.
+// Layout, every number is an unsigned LEB128 varint:
+//   "PL0B" version sourceLength
+//   byteLength stringCount { byteLength utf8Bytes }     the token interner's names in id order,
+//                                                        then the rest of the symbol table's text
+//   byteLength tokenCount { type gap length classification symbolId+1 }
+//                                                        gap: start minus the end of the token before
+//   byteLength dataAddress codeAddress firstTempEntry tempEntryCount
+//              symbolCount { nameId classification valueId address segment }
+// Reading only maps the file and finds the sections; each is decoded the first time it is asked for.
+public class BinaryFormat {
+    static final byte[] MAGIC = {'P', 'L', '0', 'B'};
+    static final int VERSION = 2;
+    static final TokenType[] TOKEN_TYPES = TokenType.values();
+    static final Classification[] CLASSIFICATIONS = Classification.values();
+
+    // A loaded program: the mapped sections and what has been decoded from them so far
+    public static class CompiledProgram {
+        CharacterReader source;
+        ByteBuffer stringSection;
+        ByteBuffer tokenSection;
+        ByteBuffer symbolSection;
+        SymbolInterner strings;
+        PackedTokens tokens;
+        SymbolTable symbolTable;
+
+        CompiledProgram() {
+        }
+
+        // A program that was just scanned, nothing left to decode
+        public CompiledProgram(PackedTokens tokens, SymbolTable symbolTable) {
+            this.source = tokens.source;
+            this.tokens = tokens;
+            this.symbolTable = symbolTable;
+        }
+
+        // Tokens over the source the program was read with, classified as they were written
+        public PackedTokens tokens() throws IOException {
+            if (tokens == null) {
+                tokens = readTokens(tokenSection, strings(), source);
+            }
+            return tokens;
+        }
+
+        public SymbolTable symbolTable() throws IOException {
+            if (symbolTable == null) {
+                symbolTable = readSymbolTable(symbolSection, strings());
+            }
+            return symbolTable;
+        }
+
+        SymbolInterner strings() throws IOException {
+            if (strings == null) {
+                strings = readStrings(stringSection);
+            }
+            return strings;
+        }
+    }
+
+    // Strings in first-use order, each written once and referenced by index
+    static class StringTable {
+        HashMap<String, Integer> ids = new HashMap<>();
+        String[] strings = new String[16];
+        int count;
+
+        int intern(String text) {
+            Integer id = ids.get(text);
+            if (id != null) {
+                return id;
+            }
+            if (count == strings.length) {
+                String[] bigger = new String[strings.length * 2];
+                System.arraycopy(strings, 0, bigger, 0, count);
+                strings = bigger;
+            }
+            strings[count] = text;
+            ids.put(text, count);
+            return count++;
+        }
+    }
+
+    public static void writeToFile(PackedTokens tokens, SymbolTable symbolTable, String filename) throws IOException {
+        // The interner's names go first so a token's symbol id is its string index
+        StringTable strings = new StringTable();
+        for (int id = 0; id < tokens.interner.size(); id++) {
+            strings.intern(tokens.interner.name(id));
+        }
+        int[] symbolStrings = new int[symbolTable.symbolCount * 2];
+        for (int i = 0; i < symbolTable.symbolCount; i++) {
+            symbolStrings[i * 2] = strings.intern(symbolTable.symbolName(i));
+            symbolStrings[i * 2 + 1] = strings.intern(symbolTable.valueText(i));
+        }
+        byte[][] utf8 = new byte[strings.count][];
+        int stringBytes = varintSize(strings.count);
+        for (int i = 0; i < strings.count; i++) {
+            utf8[i] = strings.strings[i].getBytes(StandardCharsets.UTF_8);
+            stringBytes += varintSize(utf8[i].length) + utf8[i].length;
+        }
+        int tokenBytes = varintSize(tokens.count);
+        int end = 0;
+        for (int i = 0; i < tokens.count; i++) {
+            tokenBytes += varintSize(tokens.types[i]) + varintSize(tokens.starts[i] - end) + varintSize(tokens.lengths[i])
+                + varintSize(tokens.classifications[i]) + varintSize(tokens.symbolIds[i] + 1);
+            end = tokens.starts[i] + tokens.lengths[i];
+        }
+        int symbolBytes = varintSize(symbolTable.dataAddress) + varintSize(symbolTable.codeAddress)
+            + varintSize(symbolTable.firstTempEntry) + varintSize(symbolTable.tempEntryCount) + varintSize(symbolTable.symbolCount);
+        for (int i = 0; i < symbolTable.symbolCount; i++) {
+            symbolBytes += varintSize(symbolStrings[i * 2]) + varintSize(symbolTable.classifications[i])
+                + varintSize(symbolStrings[i * 2 + 1]) + varintSize(symbolTable.addresses[i]) + varintSize(symbolTable.segments[i]);
+        }
+
+        try (OutputBuffer output = OutputBuffer.toFile(filename)) {
+            for (int i = 0; i < MAGIC.length; i++) {
+                output.appendByte(MAGIC[i]);
+            }
+            writeVarint(output, VERSION);
+            writeVarint(output, tokens.source.length);
+
+            writeVarint(output, stringBytes);
+            writeVarint(output, strings.count);
+            for (int i = 0; i < strings.count; i++) {
+                writeVarint(output, utf8[i].length);
+                for (int j = 0; j < utf8[i].length; j++) {
+                    output.appendByte(utf8[i][j]);
+                }
+            }
+
+            writeVarint(output, tokenBytes);
+            writeVarint(output, tokens.count);
+            end = 0;
+            for (int i = 0; i < tokens.count; i++) {
+                writeVarint(output, tokens.types[i]);
+                writeVarint(output, tokens.starts[i] - end);
+                writeVarint(output, tokens.lengths[i]);
+                writeVarint(output, tokens.classifications[i]);
+                writeVarint(output, tokens.symbolIds[i] + 1);
+                end = tokens.starts[i] + tokens.lengths[i];
+            }
+
+            writeVarint(output, symbolBytes);
+            writeVarint(output, symbolTable.dataAddress);
+            writeVarint(output, symbolTable.codeAddress);
+            writeVarint(output, symbolTable.firstTempEntry);
+            writeVarint(output, symbolTable.tempEntryCount);
+            writeVarint(output, symbolTable.symbolCount);
+            for (int i = 0; i < symbolTable.symbolCount; i++) {
+                writeVarint(output, symbolStrings[i * 2]);
+                writeVarint(output, symbolTable.classifications[i]);
+                writeVarint(output, symbolStrings[i * 2 + 1]);
+                writeVarint(output, symbolTable.addresses[i]);
+                writeVarint(output, symbolTable.segments[i]);
+            }
+        }
+    }
+
+    // Maps the file and finds its sections; source must be the text the program was scanned from
+    public static CompiledProgram readFromFile(Path file, CharacterReader source) throws IOException {
+        ByteBuffer input;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            input = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return read(input, source);
+    }
+
+    static CompiledProgram read(ByteBuffer input, CharacterReader source) throws IOException {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (!input.hasRemaining() || input.get() != MAGIC[i]) {
+                throw new IOException("Not a compiled program file");
+            }
+        }
+        int version = readVarint(input);
+        if (version != VERSION) {
+            throw new IOException("Unsupported compiled program version " + version);
+        }
+        int sourceLength = readVarint(input);
+        if (sourceLength != source.length) {
+            throw new IOException("Compiled program is for a source of " + sourceLength + " bytes, not " + source.length);
+        }
+        CompiledProgram program = new CompiledProgram();
+        program.source = source;
+        program.stringSection = section(input);
+        program.tokenSection = section(input);
+        program.symbolSection = section(input);
+        return program;
+    }
+
+    // The next length-prefixed section as a buffer of its own, so decoding cannot run past it
+    static ByteBuffer section(ByteBuffer input) throws IOException {
+        int length = readCount(input, 1);
+        ByteBuffer section = input.slice(input.position(), length);
+        input.position(input.position() + length);
+        return section;
+    }
+
+    // every count and length is checked against the bytes left, so a damaged file cannot
+    // ask for a huge array, and every index against what it indexes
+    static SymbolInterner readStrings(ByteBuffer input) throws IOException {
+        SymbolInterner strings = new SymbolInterner();
+        int count = readCount(input, 1);
+        byte[] scratch = new byte[64];
+        for (int i = 0; i < count; i++) {
+            int length = readCount(input, 1);
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            input.get(scratch, 0, length);
+            if (strings.intern(new String(scratch, 0, length, StandardCharsets.UTF_8)) != i) {
+                throw new IOException("Compiled program file repeats a string");
+            }
+        }
+        return strings;
+    }
+
+    static PackedTokens readTokens(ByteBuffer input, SymbolInterner strings, CharacterReader source) throws IOException {
+        int count = readCount(input, 5);
+        PackedTokens tokens = new PackedTokens(source, strings, Math.max(1, count));
+        int end = 0;
+        for (int i = 0; i < count; i++) {
+            TokenType type = TOKEN_TYPES[readIndex(input, TOKEN_TYPES.length)];
+            int start = end + readIndex(input, source.length - end + 1);
+            int length = readIndex(input, source.length - start + 1);
+            int classification = readIndex(input, CLASSIFICATIONS.length);
+            int symbolId = readIndex(input, strings.size() + 1) - 1;
+            tokens.add(type, start, length, symbolId);
+            tokens.classifications[i] = (byte) classification;
+            end = start + length;
+        }
+        return tokens;
+    }
+
+    static SymbolTable readSymbolTable(ByteBuffer input, SymbolInterner strings) throws IOException {
+        SymbolTable symbolTable = new SymbolTable();
+        int dataAddress = readIndex(input, Integer.MAX_VALUE);
+        int codeAddress = readIndex(input, Integer.MAX_VALUE);
+        int firstTempEntry = readIndex(input, Integer.MAX_VALUE);
+        int tempEntryCount = readIndex(input, Integer.MAX_VALUE);
+        int symbolCount = readCount(input, 5);
+        for (int i = 0; i < symbolCount; i++) {
+            String name = strings.name(readIndex(input, strings.size()));
+            Classification classification = CLASSIFICATIONS[readIndex(input, CLASSIFICATIONS.length)];
+            String valueText = strings.name(readIndex(input, strings.size()));
+            int address = readIndex(input, Integer.MAX_VALUE);
+            byte segment = (byte) readIndex(input, SymbolTable.SEGMENTS.length);
+            if (classification == Classification.DEFAULT) {
+                throw new IOException("Bad symbol table entry for " + name);
+            }
+            symbolTable.addSymbol(name, classification, valueText, address, segment);
+        }
+        if (firstTempEntry > symbolCount || tempEntryCount > symbolCount - firstTempEntry) {
+            throw new IOException("Compiled program file has temps past its symbol table");
+        }
+        symbolTable.dataAddress = dataAddress;
+        symbolTable.codeAddress = codeAddress;
+        symbolTable.firstTempEntry = firstTempEntry;
+        symbolTable.tempEntryCount = tempEntryCount;
+        return symbolTable;
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void writeVarint(OutputBuffer output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.appendByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.appendByte(value);
+    }
+
+    // A count of items that take at least bytesEach bytes, or a length in bytes, that fits in what is left
+    static int readCount(ByteBuffer input, int bytesEach) throws IOException {
+        int count = readVarint(input);
+        if (count < 0 || count > input.remaining() / bytesEach) {
+            throw new IOException("Compiled program file is truncated or has a bad count " + count);
+        }
+        return count;
+    }
+
+    // An index below size
+    static int readIndex(ByteBuffer input, int size) throws IOException {
+        int index = readVarint(input);
+        if (index < 0 || index >= size) {
+            throw new IOException("Compiled program file has a bad index " + index);
+        }
+        return index;
+    }
+
+    static int readVarint(ByteBuffer input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!input.hasRemaining()) {
+                throw new IOException("Compiled program file is truncated");
+            }
+            int next = input.get();
+            value |= (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in compiled program file");
+    }
+}
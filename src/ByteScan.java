@@ -0,0 +1,62 @@
+//ByteScan.java
+import java.nio.ByteBuffer;
+
+// SWAR scans over source bytes: eight bytes are tested at once in a long, so runs of whitespace
+// and comment bodies are skipped without going through the DFA one character at a time.
+class ByteScan {
+    static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+    static final long HIGH_BITS = 0x8080808080808080L;
+    static final long ABOVE_SPACE = 0x5F5F5F5F5F5F5F5FL;
+
+    // First index at or after from holding a byte above ' ', or limit
+    static int skipSpaces(ByteBuffer bytes, int from, int limit) {
+        int index = from;
+        while (index + 8 <= limit) {
+            // buffer order is big-endian, so the first byte is the most significant one
+            long word = bytes.getLong(index);
+            // high bit set in each byte that is above 0x20 (or not ASCII); adding to seven bits never carries
+            long found = (((word & LOW_SEVEN_BITS) + ABOVE_SPACE) | word) & HIGH_BITS;
+            if (found != 0) {
+                return index + (Long.numberOfLeadingZeros(found) >>> 3);
+            }
+            index += 8;
+        }
+        while (index < limit && (bytes.get(index) & 0xFF) <= ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    // First index at or after from holding target, or limit
+    static int indexOf(ByteBuffer bytes, int from, int limit, byte target) {
+        long pattern = (target & 0xFFL) * 0x0101010101010101L;
+        int index = from;
+        while (index + 8 <= limit) {
+            long word = bytes.getLong(index) ^ pattern;
+            // high bit set exactly in the bytes that are zero, i.e. equal to target
+            long found = ~(((word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | word | LOW_SEVEN_BITS);
+            if (found != 0) {
+                return index + (Long.numberOfLeadingZeros(found) >>> 3);
+            }
+            index += 8;
+        }
+        while (index < limit && bytes.get(index) != target) {
+            index++;
+        }
+        return index;
+    }
+
+    // Same scans for String-backed sources, one character at a time
+    static int skipSpaces(String text, int from, int limit) {
+        int index = from;
+        while (index < limit && text.charAt(index) <= ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    static int indexOf(String text, int from, int limit, char target) {
+        int index = text.indexOf(target, from);
+        return index < 0 || index > limit ? limit : index;
+    }
+}
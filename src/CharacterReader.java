@@ -1,22 +1,100 @@
 //CharacterReader.java
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
 class CharacterReader {
     String sourceText;
+    // Set instead of sourceText when reading straight from a mapped file
+    ByteBuffer sourceBytes;
     int position;
+    int length;
 
     CharacterReader(String sourceText) {
         this.sourceText = sourceText;
         this.position = 0;
+        this.length = sourceText.length();
+    }
+
+    CharacterReader(ByteBuffer sourceBytes) {
+        this.sourceBytes = sourceBytes;
+        this.position = 0;
+        this.length = sourceBytes.limit();
     }
 
-    boolean eof() {
-        return position >= sourceText.length();
+    // Maps the file and reads its bytes directly, no decode pass to a String.
+    // ASCII bytes are the characters themselves; any byte above 0x7F (part of a
+    // multi-byte character like an en-dash) reads as a char that classifies as OTHER,
+    // same as the decoded character would, so the tokens come out the same.
+    static CharacterReader fromFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Source file too large to map: " + path);
+            }
+            return new CharacterReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
     }
-    //returns the next character and advances
-    char readNextCharacter() {
-        return sourceText.charAt(position++);
+
+    // Copy whose text replace can change in place: a heap byte buffer with room to grow. A char
+    // above 0xFF is stored as 0xFF, which classifies as OTHER just as the char itself does.
+    static CharacterReader editable(CharacterReader source) {
+        byte[] data = new byte[Math.max(64, source.length * 2)];
+        for (int i = 0; i < source.length; i++) {
+            data[i] = (byte) Math.min(source.charAt(i), 0xFF);
+        }
+        CharacterReader copy = new CharacterReader(ByteBuffer.wrap(data).limit(source.length));
+        copy.position = source.position;
+        return copy;
+    }
+
+    boolean isEditable() {
+        return sourceBytes != null && sourceBytes.hasArray() && !sourceBytes.isReadOnly();
+    }
+
+    // Replaces the text between start and end, moving only what follows it; needs an editable reader
+    void replace(int start, int end, String text) {
+        int newLength = length - (end - start) + text.length();
+        byte[] data = sourceBytes.array();
+        if (newLength > data.length) {
+            data = Arrays.copyOf(data, Math.max(newLength, data.length * 2));
+            sourceBytes = ByteBuffer.wrap(data);
+        }
+        System.arraycopy(data, end, data, start + text.length(), length - end);
+        for (int i = 0; i < text.length(); i++) {
+            data[start + i] = (byte) Math.min(text.charAt(i), 0xFF);
+        }
+        length = newLength;
+        sourceBytes.limit(newLength);
+    }
+
+    // Reader over part of the same source, positions stay absolute so tokens keep their offsets
+    CharacterReader slice(int start, int end) {
+        CharacterReader view = sourceBytes != null ? new CharacterReader(sourceBytes) : new CharacterReader(sourceText);
+        view.position = start;
+        view.length = end;
+        return view;
+    }
+
+    // character at an absolute position, does not move the reader
+    char charAt(int index) {
+        if (sourceBytes != null) {
+            return (char) (sourceBytes.get(index) & 0xFF);
+        }
+        return sourceText.charAt(index);
     }
-    //back one character
-    void moveBackOneChar() {
-        position--;
+    // copies the source text between two positions
+    String text(int start, int end) {
+        if (sourceBytes == null) {
+            return sourceText.substring(start, end);
+        }
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (sourceBytes.get(start + i) & 0xFF);
+        }
+        return new String(chars);
     }
 }
@@ -0,0 +1,29 @@
+//Classification.java
+// Classifications the symbol table assigns to tokens, DEFAULT keeps the token type's own name
+public enum Classification {
+    DEFAULT(null),
+    PROGRAM_NAME("$program name"),
+    PROCEDURE("Procedure"),
+    CONSTVAR("Constvar"),
+    NUMERIC_LITERAL("Numeric literal"),
+    VAR("Var");
+
+    String outputname;
+    Classification(String outputname) {
+        this.outputname = outputname;
+    }
+// Returns the string for the classification, used in output files
+    public String getOutputName() {
+        return outputname;
+    }
+
+    // Classification with the given output name, DEFAULT for any other text
+    public static Classification fromOutputName(String name) {
+        for (Classification classification : values()) {
+            if (classification.outputname != null && classification.outputname.equals(name)) {
+                return classification;
+            }
+        }
+        return DEFAULT;
+    }
+}
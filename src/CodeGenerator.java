@@ -0,0 +1,330 @@
+//CodeGenerator.java
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Walks the syntax tree and emits quads over the symbol table's DS/CS layout.
+// Procedures come first, each ending in RETURN, then the main program ending in HALT.
+// Temps: every intermediate value is read exactly once, so a temp goes back on a free list as
+// soon as the quad using it is emitted. The next intermediate value takes a freed temp before a
+// new one is made, so the number of temps is the most values ever live at once, not the number
+// of operators. Temps get their own DS entries named $Temp1, $Temp2..., which no identifier can
+// spell, so a temp never shares a slot with a variable the program declares (even one called Temp1).
+// The Temp1..Temp3 the symbol table reserves from its operator count are dropped first, so DS
+// holds only the temps the code uses.
+public class CodeGenerator {
+    static final String TEMP_PREFIX = "$Temp";
+    SyntaxTree tree;
+    SymbolTable table;
+    Quads quads;
+    // Symbol index of $Temp1, $Temp2... and the free list of temp numbers (0 based), used as a stack
+    int[] tempEntries;
+    int tempCount;
+    int[] freeTemps;
+    int freeCount;
+    // Temp number + 1 by symbol index, 0 for entries that are not temps
+    int[] tempNumbers;
+
+    CodeGenerator(SyntaxTree tree, SymbolTable table) {
+        this.tree = tree;
+        this.table = table;
+        table.dropTempSymbols();
+        this.quads = new Quads(table, Math.max(Quads.START_SIZE, tree.size()));
+        tempEntries = new int[4];
+        tempCount = 0;
+        freeTemps = new int[4];
+        freeCount = 0;
+        tempNumbers = new int[table.symbolCount];
+    }
+
+    // Generates code for a parsed program; parts of the tree the parser could not build are skipped
+    public static Quads generate(SyntaxTree tree, SymbolTable table) {
+        CodeGenerator generator = new CodeGenerator(tree, table);
+        if (tree.root >= 0) {
+            int block = tree.firstChild(tree.root);
+            if (block >= 0) {
+                generator.generateProcedures(block);
+                generator.quads.mainEntry = generator.quads.count;
+                generator.generateStatements(block);
+            }
+        }
+        if (generator.quads.mainEntry < 0) {
+            generator.quads.mainEntry = generator.quads.count;
+        }
+        generator.quads.add(Quads.HALT, -1, -1, -1);
+        generator.quads.tempCount = generator.tempCount;
+        generator.quads.tempEntries = Arrays.copyOf(generator.tempEntries, generator.tempCount);
+        return generator.quads;
+    }
+
+    // Every procedure declared in the block, nested ones before the procedure they are in
+    void generateProcedures(int block) {
+        for (int child = tree.firstChild(block); child >= 0; child = tree.nextSibling(child)) {
+            if (tree.kind(child) != SyntaxTree.PROCEDURE) {
+                continue;
+            }
+            int body = tree.firstChild(child);
+            if (body >= 0) {
+                generateProcedures(body);
+            }
+            int procedure = SymbolTable.lookupSymbolIndex(table, tree.text(child));
+            if (procedure >= 0) {
+                quads.setProcedureEntry(procedure, quads.count);
+            }
+            if (body >= 0) {
+                generateStatements(body);
+            }
+            quads.add(Quads.RETURN, -1, -1, -1);
+        }
+    }
+
+    // The statements of a block or compound statement, declarations are skipped
+    void generateStatements(int parent) {
+        for (int child = tree.firstChild(parent); child >= 0; child = tree.nextSibling(child)) {
+            generateStatement(child);
+        }
+    }
+
+    void generateStatement(int node) {
+        switch (tree.kind(node)) {
+            case SyntaxTree.ASSIGN: {
+                int target = variable(node);
+                if (target < 0) {
+                    return;
+                }
+                // the last operation writes straight into the target, no temp and no copy
+                int value = generateExpression(tree.firstChild(node), target);
+                if (value >= 0 && value != target) {
+                    quads.add(Quads.ASSIGN, value, -1, target);
+                    release(value);
+                }
+                break;
+            }
+            case SyntaxTree.CALL: {
+                int procedure = SymbolTable.lookupSymbolIndex(table, tree.text(node));
+                if (procedure < 0 || table.classification(procedure) != Classification.PROCEDURE) {
+                    quads.errors.add("line " + tree.line(tree.tokenIndex(node)) + ": " + tree.text(node) + " is not a procedure");
+                    return;
+                }
+                quads.add(Quads.CALL, procedure, -1, -1);
+                break;
+            }
+            case SyntaxTree.IF: {
+                int jump = generateCondition(tree.firstChild(node));
+                int body = tree.nextSibling(tree.firstChild(node));
+                if (body >= 0) {
+                    generateStatement(body);
+                }
+                patch(jump, quads.count);
+                break;
+            }
+            case SyntaxTree.WHILE: {
+                int top = quads.count;
+                int jump = generateCondition(tree.firstChild(node));
+                int body = tree.nextSibling(tree.firstChild(node));
+                if (body >= 0) {
+                    generateStatement(body);
+                }
+                quads.add(Quads.JMP, -1, -1, top);
+                patch(jump, quads.count);
+                break;
+            }
+            case SyntaxTree.COMPOUND:
+                generateStatements(node);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Emits a jump taken when the condition is false and returns its index for patching, -1 if none
+    int generateCondition(int node) {
+        if (node < 0) {
+            return -1;
+        }
+        if (tree.kind(node) == SyntaxTree.ODD) {
+            int value = generateExpression(tree.firstChild(node), -1);
+            if (value < 0) {
+                return -1;
+            }
+            release(value);
+            return quads.add(Quads.JEVEN, value, -1, -1);
+        }
+        if (tree.kind(node) != SyntaxTree.RELATION) {
+            return -1;
+        }
+        int left = generateExpression(tree.firstChild(node), -1);
+        int right = generateExpression(tree.nextSibling(tree.firstChild(node)), -1);
+        if (left < 0 || right < 0) {
+            release(left);
+            release(right);
+            return -1;
+        }
+        release(left);
+        release(right);
+        return quads.add(falseJump(tree.tokens.type(tree.tokenIndex(node))), left, right, -1);
+    }
+
+    // Jump for the opposite of the relation
+    static int falseJump(TokenType relation) {
+        switch (relation) {
+            case EQUALS_OP:
+                return Quads.JNE;
+            case NOT_EQUAL_OP:
+                return Quads.JEQ;
+            case LESS_OP:
+                return Quads.JGE;
+            case LESS_EQUAL_OP:
+                return Quads.JGT;
+            case GREATER_OP:
+                return Quads.JLE;
+            default:
+                return Quads.JLT;
+        }
+    }
+
+    void patch(int jump, int target) {
+        if (jump >= 0) {
+            quads.results[jump] = target;
+        }
+    }
+
+    // Emits code for the expression and returns the symbol index holding its value, -1 on error.
+    // An operation's result goes to destination when one is given, otherwise to a temp.
+    int generateExpression(int node, int destination) {
+        if (node < 0) {
+            return -1;
+        }
+        switch (tree.kind(node)) {
+            case SyntaxTree.NAME:
+                return operand(node);
+            case SyntaxTree.NUMBER:
+                return literal(tree.text(node));
+            case SyntaxTree.NEGATE: {
+                int value = generateExpression(tree.firstChild(node), -1);
+                if (value < 0) {
+                    return -1;
+                }
+                release(value);
+                int result = destination >= 0 ? destination : allocateTemp();
+                quads.add(Quads.NEG, value, -1, result);
+                return result;
+            }
+            case SyntaxTree.BINARY: {
+                int left = generateExpression(tree.firstChild(node), -1);
+                int right = generateExpression(tree.nextSibling(tree.firstChild(node)), -1);
+                if (left < 0 || right < 0) {
+                    release(left);
+                    release(right);
+                    return -1;
+                }
+                // operands are dead once read, so the result may take one of their temps
+                release(left);
+                release(right);
+                int result = destination >= 0 ? destination : allocateTemp();
+                quads.add(arithmetic(tree.tokens.type(tree.tokenIndex(node))), left, right, result);
+                return result;
+            }
+            default:
+                return -1;
+        }
+    }
+
+    static int arithmetic(TokenType operator) {
+        switch (operator) {
+            case ADD_OP:
+                return Quads.ADD;
+            case SUB_OP:
+                return Quads.SUB;
+            case MULT_OP:
+                return Quads.MUL;
+            default:
+                return Quads.DIV;
+        }
+    }
+
+    // Symbol index of a name read in an expression
+    int operand(int node) {
+        int index = SymbolTable.lookupSymbolIndex(table, tree.text(node));
+        if (index < 0 || table.classification(index) == Classification.PROCEDURE
+                || table.classification(index) == Classification.PROGRAM_NAME) {
+            quads.errors.add("line " + tree.line(tree.tokenIndex(node)) + ": " + tree.text(node) + " is not a variable or constant");
+            return -1;
+        }
+        return index;
+    }
+
+    // Symbol index of the variable an assignment writes
+    int variable(int node) {
+        int index = operand(node);
+        if (index >= 0 && table.classification(index) != Classification.VAR) {
+            quads.errors.add("line " + tree.line(tree.tokenIndex(node)) + ": cannot assign to " + tree.text(node));
+            return -1;
+        }
+        return index;
+    }
+
+    // Literal entry for a number, added to DS if the symbol table has not seen it
+    int literal(String value) {
+        int index = SymbolTable.lookupSymbolIndex(table, value);
+        if (index < 0) {
+            table.addSymbol(value, Classification.NUMERIC_LITERAL, value, table.dataAddress, SymbolTable.SEGMENT_DS);
+            table.dataAddress += 2;
+            index = table.symbolCount - 1;
+        }
+        return index;
+    }
+
+    boolean isTemp(int symbolIndex) {
+        return symbolIndex >= 0 && symbolIndex < tempNumbers.length && tempNumbers[symbolIndex] != 0;
+    }
+
+    // Most recently freed temp, or the next new one
+    int allocateTemp() {
+        if (freeCount > 0) {
+            return tempEntries[freeTemps[--freeCount]];
+        }
+        int number = tempCount++;
+        String name = TEMP_PREFIX + (number + 1);
+        int index = SymbolTable.lookupSymbolIndex(table, name);
+        if (index < 0) {
+            table.addSymbol(name, Classification.VAR, "?", table.dataAddress, SymbolTable.SEGMENT_DS);
+            table.dataAddress += 2;
+            index = table.symbolCount - 1;
+        }
+        if (number == tempEntries.length) {
+            tempEntries = Arrays.copyOf(tempEntries, tempEntries.length * 2);
+            freeTemps = Arrays.copyOf(freeTemps, freeTemps.length * 2);
+        }
+        tempEntries[number] = index;
+        if (index >= tempNumbers.length) {
+            tempNumbers = Arrays.copyOf(tempNumbers, Math.max(index + 1, tempNumbers.length * 2));
+        }
+        tempNumbers[index] = number + 1;
+        return index;
+    }
+
+    // Puts a temp back on the free list once its value has been read
+    void release(int symbolIndex) {
+        if (isTemp(symbolIndex)) {
+            freeTemps[freeCount++] = tempNumbers[symbolIndex] - 1;
+        }
+    }
+
+    // Scans, builds the symbol table, parses and prints the quads for a source file
+    public static void main(String[] args) throws IOException {
+        Path sourceFile = Path.of(args.length > 0 ? args[0] : "Program_Text.txt");
+        PackedTokens tokens = new Scanner(CharacterReader.fromFile(sourceFile)).getPackedTokens();
+        SymbolTable table = SymbolTable.buildFromTokens(tokens);
+        SyntaxTree tree = Parser.parse(tokens);
+        Quads quads = generate(tree, table);
+        System.out.print(quads.dump());
+        for (SyntaxTree.SyntaxError error : tree.errors) {
+            System.out.println(tree.describe(error));
+        }
+        for (String error : quads.errors) {
+            System.out.println(error);
+        }
+        System.out.println(quads.count + " quads, " + quads.tempCount + " temps");
+    }
+}
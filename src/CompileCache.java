@@ -0,0 +1,266 @@
+//CompileCache.java
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// On-disk cache of scanned programs, keyed by the content of the source, so an unchanged file is
+// never scanned or classified again. An entry is a BinaryFormat file named
+// <fingerprint>-<source hash>-<source length>.pl0b; the fingerprint covers the lexer tables,
+// keywords, token types, classifications and the format version, so changing the scanner
+// orphans every old entry instead of serving stale tokens.
+// Safe to share between processes: entries are written to a temp file and moved into place
+// atomically, a hit refreshes the entry's modified time, and eviction of the least recently
+// used entries runs under a FileLock on the lock file once the directory grows past maxBytes.
+public class CompileCache {
+    static final long DEFAULT_MAX_BYTES = 256L << 20;
+    static final String ENTRY_SUFFIX = ".pl0b";
+    static final String TEMP_SUFFIX = ".tmp";
+    static final String LOCK_FILE = "lock";
+    // Eviction goes down to this share of maxBytes, so it does not run again on the next store
+    static final double EVICT_TO = 0.9;
+    // Temp files this old belong to a process that died mid-write
+    static final long STALE_TEMP_MILLIS = 10 * 60 * 1000;
+    static final long FINGERPRINT = fingerprint();
+
+    Path directory;
+    long maxBytes;
+    // Size of the directory as this process last saw it plus what it has stored since
+    AtomicLong approximateBytes = new AtomicLong();
+    AtomicLong hits = new AtomicLong();
+    AtomicLong misses = new AtomicLong();
+
+    public CompileCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        approximateBytes.set(directorySize());
+    }
+
+    // Same output files as Scanner.compileFile, taken from the cache when the source is unchanged
+    public int compileFile(Path sourceFile, String tokensFile, String symbolTableFile) throws IOException {
+        CompilerMetrics.Span read = CompilerMetrics.begin(CompilerMetrics.READ);
+        CharacterReader reader = CharacterReader.fromFile(sourceFile);
+        CompilerMetrics.end(read, reader.length, 0);
+        ByteBuffer source = reader.sourceBytes;
+        CompilerMetrics.Span cacheLookup = CompilerMetrics.begin(CompilerMetrics.CACHE_LOOKUP);
+        Path entry = entryFor(source);
+        BinaryFormat.CompiledProgram program = lookup(entry, reader);
+        CompilerMetrics.end(cacheLookup, reader.length, program == null ? 0 : program.tokens.count);
+        if (program == null) {
+            CompilerMetrics.Span scan = CompilerMetrics.begin(CompilerMetrics.SCAN);
+            PackedTokens tokens = new Scanner(reader).getPackedTokens();
+            CompilerMetrics.end(scan, reader.length, tokens.count);
+            CompilerMetrics.Span classify = CompilerMetrics.begin(CompilerMetrics.SYMBOL_TABLE);
+            SymbolTable symbolTable = SymbolTable.buildFromTokens(tokens);
+            CompilerMetrics.end(classify, reader.length, tokens.count);
+            program = new BinaryFormat.CompiledProgram(tokens, symbolTable);
+            store(entry, program);
+        }
+        CompilerMetrics.Span writeTokens = CompilerMetrics.begin(CompilerMetrics.WRITE_TOKENS);
+        TokenWriter.writeToFile(program.tokens, tokensFile);
+        CompilerMetrics.end(writeTokens, 0, program.tokens.count);
+        CompilerMetrics.Span writeSymbols = CompilerMetrics.begin(CompilerMetrics.WRITE_SYMBOL_TABLE);
+        SymbolTableWriter.writeToFile(program.symbolTable, symbolTableFile);
+        CompilerMetrics.end(writeSymbols, 0, 0);
+        return program.tokens.count;
+    }
+
+    Path entryFor(ByteBuffer source) {
+        return directory.resolve(Long.toHexString(FINGERPRINT) + "-" + Long.toHexString(hash(source))
+            + "-" + source.limit() + ENTRY_SUFFIX);
+    }
+
+    // The cached program over source, decoded in full so a damaged entry is a miss, null on a miss
+    BinaryFormat.CompiledProgram lookup(Path entry, CharacterReader source) {
+        try {
+            BinaryFormat.CompiledProgram program = BinaryFormat.readFromFile(entry, source);
+            program.tokens();
+            program.symbolTable();
+            hits.incrementAndGet();
+            // modified time is the LRU clock, access times are often not kept
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return program;
+        } catch (IOException | RuntimeException missingOrDamaged) {
+            misses.incrementAndGet();
+            if (!(missingOrDamaged instanceof NoSuchFileException)) {
+                // damaged, so the store after this miss writes it again
+                try {
+                    Files.deleteIfExists(entry);
+                } catch (IOException ignored) {
+                    // the store replaces it anyway
+                }
+            }
+            return null;
+        }
+    }
+
+    // Adds an entry; a cache that cannot be written only costs the next run a scan
+    void store(Path entry, BinaryFormat.CompiledProgram program) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, "entry", TEMP_SUFFIX);
+            BinaryFormat.writeToFile(program.tokens, program.symbolTable, temp.toString());
+            long size = Files.size(temp);
+            Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+            if (approximateBytes.addAndGet(size) > maxBytes) {
+                evict();
+            }
+        } catch (IOException ignored) {
+            // the compile itself already succeeded
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // left for a later eviction
+                }
+            }
+        }
+    }
+
+    // Deletes least recently used entries until the directory is under EVICT_TO of maxBytes.
+    // The file lock keeps other processes out; it is held per JVM, so threads take the monitor first.
+    void evict() throws IOException {
+        synchronized (CompileCache.class) {
+            try (FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // released when the channel closes
+                lockChannel.lock();
+                List<Path> files = new ArrayList<>();
+                List<Long> times = new ArrayList<>();
+                List<Long> sizes = new ArrayList<>();
+                long total = 0;
+                long now = System.currentTimeMillis();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                    for (Path file : entries) {
+                        String name = file.getFileName().toString();
+                        try {
+                            long time = Files.getLastModifiedTime(file).toMillis();
+                            if (name.endsWith(TEMP_SUFFIX) && now - time > STALE_TEMP_MILLIS) {
+                                Files.deleteIfExists(file);
+                            } else if (name.endsWith(ENTRY_SUFFIX)) {
+                                long size = Files.size(file);
+                                files.add(file);
+                                times.add(time);
+                                sizes.add(size);
+                                total += size;
+                            }
+                        } catch (IOException alreadyGone) {
+                            // evicted by someone else between listing and reading it
+                        }
+                    }
+                }
+                Integer[] order = new Integer[files.size()];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> Long.compare(times.get(a), times.get(b)));
+                long target = (long) (maxBytes * EVICT_TO);
+                for (int i = 0; i < order.length && total > target; i++) {
+                    Files.deleteIfExists(files.get(order[i]));
+                    total -= sizes.get(order[i]);
+                }
+                approximateBytes.set(total);
+            }
+        }
+    }
+
+    long directorySize() throws IOException {
+        long total = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + ENTRY_SUFFIX)) {
+            for (Path file : entries) {
+                try {
+                    total += Files.size(file);
+                } catch (IOException alreadyGone) {
+                    // deleted by another process
+                }
+            }
+        }
+        return total;
+    }
+
+    // 64-bit hash of the source bytes, eight at a time
+    static long hash(ByteBuffer source) {
+        ByteBuffer bytes = source.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int length = bytes.limit();
+        long hash = length;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            hash = mix(hash, bytes.getLong(i));
+        }
+        long tail = 0;
+        for (int shift = 0; i < length; i++, shift += 8) {
+            tail |= (bytes.get(i) & 0xFFL) << shift;
+        }
+        return finish(mix(hash, tail));
+    }
+
+    static long mix(long hash, long value) {
+        value *= 0x87C37B91114253D5L;
+        value = Long.rotateLeft(value, 31) * 0x4CF5AD432745937FL;
+        return Long.rotateLeft(hash ^ value, 27) * 5 + 0x52DCE729;
+    }
+
+    static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    // Everything besides the source that decides what the tokens and symbol table come out as.
+    // The symbol table's tables are hashed; what the rest of its code does is only covered by
+    // SymbolTable.LAYOUT_VERSION, which has to be bumped when that changes.
+    static long fingerprint() {
+        long hash = BinaryFormat.VERSION;
+        hash = mix(hash, SymbolTable.LAYOUT_VERSION);
+        for (int[] row : SymbolTable.createStateTable()) {
+            for (int next : row) {
+                hash = mix(hash, next);
+            }
+        }
+        for (SymbolTable.Actions[] row : SymbolTable.createActionTable()) {
+            for (SymbolTable.Actions action : row) {
+                hash = mix(hash, action.ordinal());
+            }
+        }
+        for (String segment : SymbolTable.SEGMENTS) {
+            hash = mix(hash, segment.hashCode());
+        }
+        for (byte transition : Scanner.TRANSITIONS) {
+            hash = mix(hash, transition);
+        }
+        for (int accept : Scanner.ACCEPTS) {
+            hash = mix(hash, accept);
+        }
+        for (byte charClass : Scanner.CHAR_CLASSES) {
+            hash = mix(hash, charClass);
+        }
+        for (int i = 0; i < Scanner.KEYWORDS.length; i++) {
+            hash = mix(hash, Scanner.KEYWORDS[i].hashCode());
+            hash = mix(hash, Scanner.KEYWORD_TOKEN[i].ordinal());
+        }
+        for (TokenType type : TokenType.values()) {
+            hash = mix(hash, type.name().hashCode());
+        }
+        for (Classification classification : Classification.values()) {
+            hash = mix(hash, classification.name().hashCode());
+            hash = mix(hash, String.valueOf(classification.getOutputName()).hashCode());
+        }
+        return finish(hash);
+    }
+}
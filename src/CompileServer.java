@@ -0,0 +1,325 @@
+//CompileServer.java
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Long-running compile server, so the scanner tables are built once and the JIT stays warm.
+// Usage: CompileServer --socket <path> [-j threads]    listen on a Unix domain socket
+//        CompileServer --stdio                         serve one client on stdin/stdout
+//        CompileServer --client <path> <file>...       compile files through a running server
+// Protocol, all headers are one ASCII line:
+//   request   COMPILE <n>\n then n bytes of source, or QUIT\n
+//   response  OK <t> <s>\n then the t bytes of the token file and the s bytes of the symbol table
+//             file, exactly as compileFile writes them, or ERROR <message>\n
+// Each connection is served on its own thread and keeps its buffers between requests; the compiles
+// themselves run on a fixed pool of -j workers, so idle clients never hold up the others.
+public class CompileServer {
+    static final int MAX_SOURCE_BYTES = 1 << 30;
+    static final int MAX_HEADER_BYTES = 256;
+    static final int WARMUP_ROUNDS = 200;
+    // File type mask and socket type in a unix mode
+    static final int S_IFMT = 0170000;
+    static final int S_IFSOCK = 0140000;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("--socket")) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (args.length >= 4 && args[2].equals("-j")) {
+                threads = Integer.parseInt(args[3]);
+            }
+            listen(Path.of(args[1]), threads);
+        } else if (args.length == 1 && args[0].equals("--stdio")) {
+            warmUp();
+            ReadableByteChannel in = new FileInputStream(FileDescriptor.in).getChannel();
+            WritableByteChannel out = new FileOutputStream(FileDescriptor.out).getChannel();
+            new Connection(in, out, null).serve();
+        } else if (args.length >= 3 && args[0].equals("--client")) {
+            client(Path.of(args[1]), Arrays.copyOfRange(args, 2, args.length));
+        } else {
+            System.err.println("Usage: CompileServer --socket <path> [-j threads] | --stdio | --client <path> <file>...");
+            System.exit(2);
+        }
+    }
+
+    // Compiles generated programs so the first real request does not pay for class loading and the JIT
+    static void warmUp() throws IOException {
+        ResponseBuffer tokens = new ResponseBuffer();
+        ResponseBuffer symbols = new ResponseBuffer();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            byte[] source = ProgramGenerator.generate(4096, i + 1).getBytes(StandardCharsets.ISO_8859_1);
+            compile(ByteBuffer.wrap(source), tokens, symbols);
+        }
+    }
+
+    static void listen(Path socketFile, int threads) throws IOException {
+        warmUp();
+        removeSocket(socketFile);
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketFile));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    removeSocket(socketFile);
+                } catch (IOException ignored) {
+                    // the next start deletes it
+                }
+            }));
+            System.err.println("Listening on " + socketFile + " with " + threads + " workers");
+            while (true) {
+                SocketChannel client = server.accept();
+                connections.execute(() -> {
+                    try (SocketChannel channel = client) {
+                        new Connection(channel, channel, workers).serve();
+                    } catch (IOException e) {
+                        System.err.println("Connection failed: " + e.getMessage());
+                    }
+                });
+            }
+        } finally {
+            connections.shutdown();
+            workers.shutdown();
+        }
+    }
+
+    // Deletes a socket an earlier server left at the path; anything else there is refused, so a
+    // source file passed by mistake is never removed
+    static void removeSocket(Path socketFile) throws IOException {
+        if (!Files.exists(socketFile, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        if (!isSocket(socketFile)) {
+            throw new IOException(socketFile + " exists and is not a socket");
+        }
+        Files.delete(socketFile);
+    }
+
+    // The file type bits of the unix mode where the platform has them, else any special file
+    static boolean isSocket(Path path) throws IOException {
+        try {
+            int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+            return (mode & S_IFMT) == S_IFSOCK;
+        } catch (UnsupportedOperationException | IllegalArgumentException noUnixView) {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther();
+        }
+    }
+
+    // Scans the source and renders both output files, the same path compileFile takes for packed tokens
+    static int compile(ByteBuffer source, ResponseBuffer tokensOut, ResponseBuffer symbolsOut) throws IOException {
+        int size = source.limit();
+        CompilerMetrics.Span scan = CompilerMetrics.begin(CompilerMetrics.SCAN);
+        PackedTokens tokens = new Scanner(new CharacterReader(source)).getPackedTokens();
+        CompilerMetrics.end(scan, size, tokens.count);
+        CompilerMetrics.Span classify = CompilerMetrics.begin(CompilerMetrics.SYMBOL_TABLE);
+        SymbolTable table = SymbolTable.buildFromTokens(tokens);
+        CompilerMetrics.end(classify, size, tokens.count);
+        tokensOut.length = 0;
+        symbolsOut.length = 0;
+        CompilerMetrics.Span writeTokens = CompilerMetrics.begin(CompilerMetrics.WRITE_TOKENS);
+        TokenWriter.write(tokens, new OutputBuffer(tokensOut));
+        CompilerMetrics.end(writeTokens, tokensOut.length, tokens.count);
+        CompilerMetrics.Span writeSymbols = CompilerMetrics.begin(CompilerMetrics.WRITE_SYMBOL_TABLE);
+        SymbolTableWriter.write(table, new OutputBuffer(symbolsOut));
+        CompilerMetrics.end(writeSymbols, symbolsOut.length, 0);
+        return tokens.count;
+    }
+
+    // One client's requests in order, with buffers reused from one request to the next
+    static class Connection {
+        ReadableByteChannel in;
+        WritableByteChannel out;
+        // Pool the compiles run on, null to compile on the connection's own thread
+        ExecutorService workers;
+        ByteBuffer input = ByteBuffer.allocate(OutputBuffer.BUFFER_SIZE);
+        byte[] source = new byte[OutputBuffer.BUFFER_SIZE];
+        ResponseBuffer tokens = new ResponseBuffer();
+        ResponseBuffer symbols = new ResponseBuffer();
+
+        Connection(ReadableByteChannel in, WritableByteChannel out, ExecutorService workers) {
+            this.in = in;
+            this.out = out;
+            this.workers = workers;
+            input.flip();
+        }
+
+        void serve() throws IOException {
+            while (true) {
+                String header = readLine();
+                if (header == null || header.equals("QUIT")) {
+                    return;
+                }
+                if (!header.startsWith("COMPILE ")) {
+                    reply("ERROR unknown request " + header);
+                    return;
+                }
+                int size;
+                try {
+                    size = Integer.parseInt(header.substring("COMPILE ".length()).trim());
+                } catch (NumberFormatException e) {
+                    size = -1;
+                }
+                if (size < 0 || size > MAX_SOURCE_BYTES) {
+                    reply("ERROR bad source size in " + header);
+                    return;
+                }
+                if (source.length < size) {
+                    source = new byte[Math.max(size, source.length * 2)];
+                }
+                if (!readFully(source, size)) {
+                    return;
+                }
+                compileOnWorker(size);
+                reply("OK " + tokens.length + " " + symbols.length);
+                writeFully(ByteBuffer.wrap(tokens.data, 0, tokens.length));
+                writeFully(ByteBuffer.wrap(symbols.data, 0, symbols.length));
+            }
+        }
+
+        void compileOnWorker(int size) throws IOException {
+            if (workers == null) {
+                compile(ByteBuffer.wrap(source, 0, size), tokens, symbols);
+                return;
+            }
+            Future<Integer> done = workers.submit(() -> compile(ByteBuffer.wrap(source, 0, size), tokens, symbols));
+            try {
+                done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a compile worker");
+            } catch (ExecutionException failed) {
+                if (failed.getCause() instanceof IOException) {
+                    throw (IOException) failed.getCause();
+                }
+                throw new IllegalStateException("Compile worker failed", failed.getCause());
+            }
+        }
+
+        // Next header line without its '\n', null at end of input
+        String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            while (true) {
+                if (!input.hasRemaining() && !fill()) {
+                    return line.length() == 0 ? null : line.toString();
+                }
+                char ch = (char) (input.get() & 0xFF);
+                if (ch == '\n') {
+                    return line.toString();
+                }
+                if (line.length() == MAX_HEADER_BYTES) {
+                    throw new IOException("Request header too long");
+                }
+                line.append(ch);
+            }
+        }
+
+        boolean readFully(byte[] destination, int count) throws IOException {
+            int done = 0;
+            while (done < count) {
+                if (!input.hasRemaining() && !fill()) {
+                    return false;
+                }
+                int chunk = Math.min(count - done, input.remaining());
+                input.get(destination, done, chunk);
+                done += chunk;
+            }
+            return true;
+        }
+
+        boolean fill() throws IOException {
+            input.clear();
+            int read = in.read(input);
+            input.flip();
+            return read > 0;
+        }
+
+        void reply(String header) throws IOException {
+            writeFully(ByteBuffer.wrap((header + "\n").getBytes(StandardCharsets.ISO_8859_1)));
+        }
+
+        void writeFully(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    // In-memory channel OutputBuffer flushes into, kept and reset between requests
+    static class ResponseBuffer implements WritableByteChannel {
+        byte[] data = new byte[OutputBuffer.BUFFER_SIZE];
+        int length;
+
+        public int write(ByteBuffer bytes) {
+            int count = bytes.remaining();
+            if (length + count > data.length) {
+                data = Arrays.copyOf(data, Math.max(length + count, data.length * 2));
+            }
+            bytes.get(data, length, count);
+            length += count;
+            return count;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        // OutputBuffer closes its channel after each file, the bytes stay until the next reset
+        public void close() {
+        }
+    }
+
+    // Sends each file to the server and writes X.tokens.txt and X.symbol_table.txt next to it
+    static void client(Path socketFile, String[] files) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socketFile))) {
+            Connection connection = new Connection(channel, channel, null);
+            long totalNanos = 0;
+            for (String file : files) {
+                Path sourceFile = Path.of(file);
+                byte[] source = Files.readAllBytes(sourceFile);
+                long start = System.nanoTime();
+                connection.reply("COMPILE " + source.length);
+                connection.writeFully(ByteBuffer.wrap(source));
+                String header = connection.readLine();
+                if (header == null || !header.startsWith("OK ")) {
+                    throw new IOException("Server answered " + header + " for " + file);
+                }
+                String[] sizes = header.split(" ");
+                byte[] tokens = new byte[Integer.parseInt(sizes[1])];
+                byte[] symbols = new byte[Integer.parseInt(sizes[2])];
+                if (!connection.readFully(tokens, tokens.length) || !connection.readFully(symbols, symbols.length)) {
+                    throw new IOException("Server closed the connection during " + file);
+                }
+                totalNanos += System.nanoTime() - start;
+
+                String baseName = sourceFile.getFileName().toString();
+                int dot = baseName.lastIndexOf('.');
+                if (dot > 0) {
+                    baseName = baseName.substring(0, dot);
+                }
+                Path directory = sourceFile.toAbsolutePath().getParent();
+                Files.write(directory.resolve(baseName + ".tokens.txt"), tokens);
+                Files.write(directory.resolve(baseName + ".symbol_table.txt"), symbols);
+            }
+            connection.reply("QUIT");
+            System.out.printf("Compiled %d files, %.1f us per request%n", files.length, totalNanos / 1e3 / files.length);
+        }
+    }
+}
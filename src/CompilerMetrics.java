@@ -0,0 +1,197 @@
+//CompilerMetrics.java
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Per-stage timing, sizes and allocation, DFA state visits and symbol lookup counts for the pipeline.
+// Off unless the JVM runs with -Dcompiler.metrics=true. ENABLED is a static final, so when it is
+// false every call here returns at once and the JIT drops the calls and the guarded counting in
+// Scanner and SymbolTable entirely.
+// When on, each stage is also committed as a compiler.Stage JFR event, and at exit a JSON summary
+// goes to the file named by -Dcompiler.metrics.json, or to stderr.
+public class CompilerMetrics {
+    static final boolean ENABLED = Boolean.getBoolean("compiler.metrics");
+
+    // Stages
+    static final int READ = 0;
+    static final int SCAN = 1;
+    static final int SYMBOL_TABLE = 2;
+    static final int WRITE_TOKENS = 3;
+    static final int WRITE_SYMBOL_TABLE = 4;
+    // compileFile scans, classifies and writes each token in one pass, timed as one stage
+    static final int STREAM_TOKENS = 5;
+    static final int CACHE_LOOKUP = 6;
+    static final String[] STAGE_NAMES = {
+        "read", "scan", "symbol table", "write tokens", "write symbol table", "stream tokens", "cache lookup"
+    };
+
+    // Counters. Hash probes are the interner slots SymbolInterner.find looks at, not calls to it.
+    static final int SYMBOL_LOOKUPS = 0;
+    static final int SYMBOL_HASH_PROBES = 1;
+    static final int SYMBOL_INSERTS = 2;
+    static final String[] COUNTER_NAMES = {"symbolLookups", "symbolHashProbes", "symbolInserts"};
+
+    // Per stage: calls, nanos, bytes, tokens, allocated bytes
+    static final int FIELDS = 5;
+    static final AtomicLongArray stageTotals = new AtomicLongArray(STAGE_NAMES.length * FIELDS);
+    static final LongAdder[] counters = newCounters();
+    // Visits per DFA state, added by each Scanner when it reaches the end of its input
+    static final AtomicLongArray stateVisits = new AtomicLongArray(ENABLED ? Scanner.TRANSITIONS.length / Scanner.CLASS_COUNT : 0);
+
+    // Only looked up when metrics are on, loading the management classes costs startup time
+    static final com.sun.management.ThreadMXBean threads = ENABLED
+        ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+
+    static {
+        if (ENABLED) {
+            Runtime.getRuntime().addShutdownHook(new Thread(CompilerMetrics::writeSummary));
+        }
+    }
+
+    @Name("compiler.Stage")
+    @Label("Compiler Stage")
+    @Category("Compiler")
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+        @Label("Source Bytes")
+        @DataAmount
+        long bytes;
+        @Label("Tokens")
+        long tokens;
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    // One running stage, null when metrics are off
+    static class Span {
+        int stage;
+        long startNanos;
+        long startAllocated;
+        StageEvent event;
+    }
+
+    static LongAdder[] newCounters() {
+        LongAdder[] adders = new LongAdder[COUNTER_NAMES.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    static Span begin(int stage) {
+        if (!ENABLED) {
+            return null;
+        }
+        Span span = new Span();
+        span.stage = stage;
+        span.event = new StageEvent();
+        span.event.begin();
+        span.startAllocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        span.startNanos = System.nanoTime();
+        return span;
+    }
+
+    static void end(Span span, long bytes, long tokens) {
+        if (!ENABLED || span == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - span.startNanos;
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - span.startAllocated;
+        int at = span.stage * FIELDS;
+        stageTotals.incrementAndGet(at);
+        stageTotals.addAndGet(at + 1, nanos);
+        stageTotals.addAndGet(at + 2, bytes);
+        stageTotals.addAndGet(at + 3, tokens);
+        stageTotals.addAndGet(at + 4, allocated);
+        span.event.end();
+        if (span.event.shouldCommit()) {
+            span.event.stage = STAGE_NAMES[span.stage];
+            span.event.bytes = bytes;
+            span.event.tokens = tokens;
+            span.event.allocated = allocated;
+            span.event.commit();
+        }
+    }
+
+    static void count(int counter) {
+        if (ENABLED) {
+            counters[counter].increment();
+        }
+    }
+
+    // Adds a scanner's visits and clears them, so a scanner asked again after EOF adds nothing twice
+    static void addStateVisits(long[] visits) {
+        if (!ENABLED) {
+            return;
+        }
+        for (int i = 0; i < visits.length; i++) {
+            if (visits[i] != 0) {
+                stateVisits.addAndGet(i, visits[i]);
+                visits[i] = 0;
+            }
+        }
+    }
+
+    static String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"stages\": [");
+        boolean first = true;
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            int at = stage * FIELDS;
+            long calls = stageTotals.get(at);
+            if (calls == 0) {
+                continue;
+            }
+            long nanos = stageTotals.get(at + 1);
+            long bytes = stageTotals.get(at + 2);
+            long tokens = stageTotals.get(at + 3);
+            double seconds = Math.max(nanos, 1) / 1e9;
+            json.append(first ? "\n" : ",\n");
+            first = false;
+            json.append("    {\"name\": \"").append(STAGE_NAMES[stage]).append('"')
+                .append(", \"calls\": ").append(calls)
+                .append(", \"nanos\": ").append(nanos)
+                .append(", \"bytes\": ").append(bytes)
+                .append(", \"tokens\": ").append(tokens)
+                .append(", \"allocatedBytes\": ").append(stageTotals.get(at + 4))
+                .append(", \"tokensPerSecond\": ").append(Math.round(tokens / seconds))
+                .append(", \"megabytesPerSecond\": ").append(String.format(Locale.ROOT, "%.2f", bytes / seconds / (1024 * 1024)))
+                .append('}');
+        }
+        json.append("\n  ],\n  \"counters\": {");
+        for (int i = 0; i < COUNTER_NAMES.length; i++) {
+            json.append(i == 0 ? "" : ", ").append('"').append(COUNTER_NAMES[i]).append("\": ").append(counters[i].sum());
+        }
+        json.append("},\n  \"dfaStateVisits\": [");
+        for (int i = 0; i < stateVisits.length(); i++) {
+            json.append(i == 0 ? "" : ", ").append(stateVisits.get(i));
+        }
+        json.append("]\n}\n");
+        return json.toString();
+    }
+
+    static void writeSummary() {
+        String file = System.getProperty("compiler.metrics.json");
+        String json = toJson();
+        if (file == null) {
+            System.err.print(json);
+            return;
+        }
+        try {
+            Files.writeString(Path.of(file), json, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Could not write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+}
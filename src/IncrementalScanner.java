@@ -0,0 +1,93 @@
+//IncrementalScanner.java
+// Re-scans only the part of a token stream an edit can change, and splices the result in place.
+// Every token starts in STATE_START and the scanner reads at most LEXER_TABLES.maxLookahead
+// characters past its end, so scanning resumes at the end of the last token whose lookahead
+// stops before the edited character. It stops as soon
+// as a new token starts at the same (shifted) offset as an old token past the edit: from there
+// the text and the scanner state are the same, so the rest of the old stream is reused.
+// The source text and the token arrays are edited in place; the first edit of a stream makes its
+// source editable, later ones only move what follows the edit.
+public class IncrementalScanner {
+
+    // Old tokens firstChanged..firstChanged+removedCount were replaced by insertedCount new ones,
+    // and every token after them moved by offsetShift. tokens is the edited stream itself.
+    public static class TokenEdit {
+        public PackedTokens tokens;
+        public int firstChanged;
+        public int removedCount;
+        public int insertedCount;
+        public int offsetShift;
+    }
+
+    // Applies the edit to tokens and their source and returns what changed
+    public static TokenEdit relex(PackedTokens tokens, int editOffset, int removedLength, String insertedText) {
+        int oldEditEnd = editOffset + removedLength;
+        if (editOffset < 0 || removedLength < 0 || oldEditEnd > tokens.source.length) {
+            throw new IllegalArgumentException("Edit " + editOffset + "+" + removedLength + " is outside the source");
+        }
+        if (!tokens.source.isEditable()) {
+            tokens.source = CharacterReader.editable(tokens.source);
+        }
+        CharacterReader source = tokens.source;
+        source.replace(editOffset, oldEditEnd, insertedText);
+        int shift = insertedText.length() - removedLength;
+        int newEditEnd = editOffset + insertedText.length();
+
+        TokenEdit edit = new TokenEdit();
+        edit.tokens = tokens;
+        edit.offsetShift = shift;
+        edit.firstChanged = firstAffectedToken(tokens, editOffset, Scanner.LEXER_TABLES.maxLookahead);
+        int resumeOffset = edit.firstChanged == 0 ? 0 : tokens.starts[edit.firstChanged - 1] + tokens.lengths[edit.firstChanged - 1];
+
+        source.position = resumeOffset;
+        Scanner scanner = new Scanner(source);
+        // keep the same interner so ids stay valid across edits
+        scanner.interner = tokens.interner;
+        PackedTokens scanned = new PackedTokens(source, tokens.interner, 16);
+
+        // old token to compare against, only tokens starting after the edit can line up
+        int oldIndex = edit.firstChanged;
+        int syncIndex = tokens.count;
+        while (true) {
+            TokenType type = scanner.scanToken();
+            int start = scanner.tokenStart;
+            if (start >= newEditEnd) {
+                while (oldIndex < tokens.count && tokens.starts[oldIndex] + shift < start) {
+                    oldIndex++;
+                }
+                if (oldIndex < tokens.count && tokens.starts[oldIndex] >= oldEditEnd
+                        && tokens.starts[oldIndex] + shift == start
+                        && tokens.types[oldIndex] == type.ordinal()
+                        && tokens.lengths[oldIndex] == scanner.tokenEnd - start) {
+                    syncIndex = oldIndex;
+                    break;
+                }
+            }
+            scanned.add(type, start, scanner.tokenEnd - start, scanner.symbolId(type));
+            if (type == TokenType.EOF) {
+                break;
+            }
+        }
+
+        edit.removedCount = syncIndex - edit.firstChanged;
+        edit.insertedCount = scanned.count;
+        tokens.splice(edit.firstChanged, edit.removedCount, scanned, shift);
+        return edit;
+    }
+
+    // First token whose text or lookahead reaches the edit offset
+    static int firstAffectedToken(PackedTokens tokens, int editOffset, int lookahead) {
+        int low = 0;
+        int high = tokens.count - 1;
+        // EOF ends at the end of the source, so the search always stops at or before it
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if ((long) tokens.starts[middle] + tokens.lengths[middle] + lookahead <= editOffset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
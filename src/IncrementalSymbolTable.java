@@ -0,0 +1,235 @@
+//IncrementalSymbolTable.java
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// Symbol table that follows a token stream through edits without rebuilding from the start.
+// The state machine's position is recorded before every token. After an edit it is rewound to
+// the last token before the change where it was back in STATE_DEFAULT, the entries added after
+// that point are dropped in place, and it runs forward again. Once it is past the edit and its
+// position and entries match the old run, the rest of the old table, still in the arrays, is reused.
+public class IncrementalSymbolTable {
+    PackedTokens tokens;
+    SymbolTable table;
+    // State machine position before each token
+    int[] stateBefore;
+    int[] symbolsBefore;
+    int[] dataAddressBefore;
+    int[] codeAddressBefore;
+    int[] currentOperatorsBefore;
+    int[] maxOperatorsBefore;
+    // Position after the last token, before the temps were added
+    int finalSymbolCount;
+    int finalDataAddress;
+    int finalCodeAddress;
+    int finalMaxOperators;
+    // How many re-added entries are known to equal the old ones; once one differs it never converges
+    int entriesMatched;
+    boolean diverged;
+
+    // Entries whose address moved, and names that appeared or went away
+    public static class SymbolTableEdit {
+        public List<String> shiftedNames = new ArrayList<>();
+        public List<Integer> oldAddresses = new ArrayList<>();
+        public List<Integer> newAddresses = new ArrayList<>();
+        public List<String> added = new ArrayList<>();
+        public List<String> removed = new ArrayList<>();
+        public int firstRerunToken;
+        public int rerunTokenCount;
+    }
+
+    public static IncrementalSymbolTable build(PackedTokens tokens) {
+        IncrementalSymbolTable incremental = new IncrementalSymbolTable();
+        incremental.tokens = tokens;
+        incremental.table = new SymbolTable();
+        incremental.allocateCheckpoints(tokens.count);
+        incremental.run(0, tokens.count);
+        incremental.finish();
+        return incremental;
+    }
+
+    public SymbolTable symbolTable() {
+        return table;
+    }
+
+    public PackedTokens tokens() {
+        return tokens;
+    }
+
+    // Brings the table up to date with the token stream an IncrementalScanner edit produced
+    public SymbolTableEdit update(IncrementalScanner.TokenEdit tokenEdit) {
+        PackedTokens newTokens = tokenEdit.tokens;
+        int indexShift = tokenEdit.insertedCount - tokenEdit.removedCount;
+        int newSyncIndex = tokenEdit.firstChanged + tokenEdit.insertedCount;
+
+        // the stream was edited in place, so the old run covered this many tokens
+        int oldCount = newTokens.count - indexShift;
+        int resetIndex = Math.min(tokenEdit.firstChanged, oldCount - 1);
+        while (resetIndex > 0 && stateBefore[resetIndex] != SymbolTable.STATE_DEFAULT) {
+            resetIndex--;
+        }
+
+        int oldSymbolCount = table.symbolCount;
+        int oldFinalSymbolCount = finalSymbolCount;
+        int oldFinalDataAddress = finalDataAddress;
+        int oldFinalCodeAddress = finalCodeAddress;
+        int oldFinalMaxOperators = finalMaxOperators;
+        int firstRerunEntry = symbolsBefore[resetIndex];
+        table.rewind(firstRerunEntry);
+        table.buildState = SymbolTable.STATE_DEFAULT;
+        table.pendingConstName = null;
+        table.pendingConstId = -1;
+        table.dataAddress = dataAddressBefore[resetIndex];
+        table.codeAddress = codeAddressBefore[resetIndex];
+        table.currentOperatorCount = currentOperatorsBefore[resetIndex];
+        table.maxOperatorCount = maxOperatorsBefore[resetIndex];
+
+        // The old positions past the edit move to their new indexes; each is compared before the
+        // re-run records over it
+        tokens = newTokens;
+        int oldSyncIndex = newSyncIndex - indexShift;
+        growCheckpoints(newTokens.count);
+        if (indexShift != 0) {
+            int[][] checkpoints = {stateBefore, symbolsBefore, dataAddressBefore, codeAddressBefore, currentOperatorsBefore, maxOperatorsBefore};
+            for (int[] column : checkpoints) {
+                System.arraycopy(column, oldSyncIndex, column, newSyncIndex, oldCount - oldSyncIndex);
+            }
+        }
+
+        // Old entries are copied out only as the re-run is about to write over them
+        SymbolTable oldEntries = new SymbolTable();
+        SymbolTableEdit edit = new SymbolTableEdit();
+        edit.firstRerunToken = resetIndex;
+        int index = resetIndex;
+        boolean converged = false;
+        entriesMatched = firstRerunEntry;
+        diverged = false;
+        while (index < newTokens.count) {
+            if (index >= newSyncIndex && matchesOldRun(oldEntries, firstRerunEntry, oldSymbolCount, index)) {
+                converged = true;
+                break;
+            }
+            recordCheckpoint(index);
+            saveOldEntries(oldEntries, firstRerunEntry, Math.min(table.symbolCount + 1, oldSymbolCount));
+            table.acceptToken(newTokens, index);
+            index++;
+        }
+        edit.rerunTokenCount = index - resetIndex;
+
+        if (converged) {
+            // Same position and entries on the same remaining tokens: the rest of the old run,
+            // still in place past the re-run, applies
+            table.restore(oldFinalSymbolCount);
+            table.buildState = SymbolTable.STATE_DEFAULT;
+            table.pendingConstName = null;
+            table.pendingConstId = -1;
+            table.dataAddress = oldFinalDataAddress;
+            table.codeAddress = oldFinalCodeAddress;
+            table.currentOperatorCount = 0;
+            table.maxOperatorCount = oldFinalMaxOperators;
+            finish();
+            return edit;
+        }
+        saveOldEntries(oldEntries, firstRerunEntry, oldSymbolCount);
+        table.clearEntryCache();
+        finish();
+
+        reportChanges(edit, oldEntries, firstRerunEntry);
+        return edit;
+    }
+
+    // Copies the old entries up to end that are not saved yet, entry i goes to i - firstRerunEntry
+    void saveOldEntries(SymbolTable oldEntries, int firstRerunEntry, int end) {
+        for (int i = firstRerunEntry + oldEntries.symbolCount; i < end; i++) {
+            oldEntries.addEntry(table, i);
+        }
+    }
+
+    // Runs tokens from..to, recording the position before each one
+    void run(int from, int to) {
+        for (int i = from; i < to; i++) {
+            recordCheckpoint(i);
+            table.acceptToken(tokens, i);
+        }
+    }
+
+    void finish() {
+        finalSymbolCount = table.symbolCount;
+        finalDataAddress = table.dataAddress;
+        finalCodeAddress = table.codeAddress;
+        finalMaxOperators = table.maxOperatorCount;
+        table.finishTokens();
+    }
+
+    void recordCheckpoint(int index) {
+        stateBefore[index] = table.buildState;
+        symbolsBefore[index] = table.symbolCount;
+        dataAddressBefore[index] = table.dataAddress;
+        codeAddressBefore[index] = table.codeAddress;
+        currentOperatorsBefore[index] = table.currentOperatorCount;
+        maxOperatorsBefore[index] = table.maxOperatorCount;
+    }
+
+    // True when the new run is where the old run was before the same token, with the same entries.
+    // The checkpoint at index still holds the old run's position there.
+    boolean matchesOldRun(SymbolTable oldEntries, int firstRerunEntry, int oldSymbolCount, int index) {
+        while (!diverged && entriesMatched < table.symbolCount) {
+            diverged = entriesMatched >= oldSymbolCount || !table.sameEntry(entriesMatched, oldEntries, entriesMatched - firstRerunEntry);
+            if (!diverged) {
+                entriesMatched++;
+            }
+        }
+        return !diverged
+            && table.buildState == SymbolTable.STATE_DEFAULT && stateBefore[index] == SymbolTable.STATE_DEFAULT
+            && symbolsBefore[index] == table.symbolCount
+            && dataAddressBefore[index] == table.dataAddress
+            && codeAddressBefore[index] == table.codeAddress
+            && currentOperatorsBefore[index] == table.currentOperatorCount
+            && maxOperatorsBefore[index] == table.maxOperatorCount;
+    }
+
+    // Compares the entries from the rewind point on with the old ones, saved from index 0
+    void reportChanges(SymbolTableEdit edit, SymbolTable oldEntries, int firstRerunEntry) {
+        HashMap<String, Integer> oldByName = new HashMap<>();
+        for (int i = 0; i < oldEntries.symbolCount; i++) {
+            oldByName.putIfAbsent(oldEntries.symbolName(i), i);
+        }
+        for (int i = firstRerunEntry; i < table.symbolCount; i++) {
+            String name = table.symbolName(i);
+            Integer oldIndex = oldByName.remove(name);
+            if (oldIndex == null) {
+                edit.added.add(name);
+            } else if (oldEntries.memoryAddress(oldIndex) != table.memoryAddress(i)
+                    || oldEntries.segments[oldIndex] != table.segments[i]) {
+                edit.shiftedNames.add(name);
+                edit.oldAddresses.add(oldEntries.memoryAddress(oldIndex));
+                edit.newAddresses.add(table.memoryAddress(i));
+            }
+        }
+        edit.removed.addAll(oldByName.keySet());
+    }
+
+    void allocateCheckpoints(int count) {
+        stateBefore = new int[count];
+        symbolsBefore = new int[count];
+        dataAddressBefore = new int[count];
+        codeAddressBefore = new int[count];
+        currentOperatorsBefore = new int[count];
+        maxOperatorsBefore = new int[count];
+    }
+
+    // Makes room for count checkpoints, resizing x2 and keeping the recorded ones
+    void growCheckpoints(int count) {
+        if (count <= stateBefore.length) {
+            return;
+        }
+        int newSize = Math.max(stateBefore.length * 2, count);
+        stateBefore = Arrays.copyOf(stateBefore, newSize);
+        symbolsBefore = Arrays.copyOf(symbolsBefore, newSize);
+        dataAddressBefore = Arrays.copyOf(dataAddressBefore, newSize);
+        codeAddressBefore = Arrays.copyOf(codeAddressBefore, newSize);
+        currentOperatorsBefore = Arrays.copyOf(currentOperatorsBefore, newSize);
+        maxOperatorsBefore = Arrays.copyOf(maxOperatorsBefore, newSize);
+    }
+}
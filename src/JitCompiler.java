@@ -0,0 +1,553 @@
+//JitCompiler.java
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Compiles optimized quads to JVM bytecode in a hidden class, so HotSpot can compile the program
+// like any other Java method. Each procedure becomes a static method p<symbol index> and the main
+// program becomes run; all of them take (int[] memory, long fuel, int depth) and return the fuel
+// left, with memory laid out as in VirtualMachine. Constvar and literal operands are pushed as
+// constants instead of loaded.
+// The class file is written by hand as version 49, which is verified by type inference and so
+// needs no StackMapTable. Fuel counts instructions exactly as VirtualMachine.run does: each basic
+// block takes its length on entry and throws StepLimitReached when that leaves it negative. A
+// DIV ends its block, so a run that would stop on the step limit before dividing does so here too.
+// depth is the number of calls in progress; a CALL at MAX_CALL_DEPTH throws CallDepthExceeded.
+public class JitCompiler {
+    static final MethodType RUN_TYPE = MethodType.methodType(long.class, int[].class, long.class, int.class);
+    static final String RUN_DESCRIPTOR = "([IJI)J";
+    static final String CLASS_NAME = "JitProgram";
+    // HotSpot never compiles methods over 8000 bytes (HugeMethodLimit) and running them in the JVM's
+    // own interpreter is slower than VirtualMachine, so programs with longer methods are left to it.
+    // This also keeps every branch offset within 16 bits.
+    static final int MAX_METHOD_BYTES = 8000;
+
+    // Thrown by compiled code when its fuel runs out, without a stack trace
+    static class StepLimitReached extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StepLimitReached() {
+            super("step limit reached", null, false, false);
+        }
+    }
+
+    // Thrown by compiled code for a CALL the interpreter would report as a stack overflow
+    static class CallDepthExceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        CallDepthExceeded() {
+            super("call depth exceeded", null, false, false);
+        }
+    }
+
+    static final StepLimitReached STEP_LIMIT_REACHED = new StepLimitReached();
+    static final CallDepthExceeded CALL_DEPTH_EXCEEDED = new CallDepthExceeded();
+
+    // Called from compiled code
+    static RuntimeException stepLimit() {
+        return STEP_LIMIT_REACHED;
+    }
+
+    // Called from compiled code
+    static RuntimeException callDepth() {
+        return CALL_DEPTH_EXCEEDED;
+    }
+
+    Quads quads;
+    SymbolTable table;
+    ConstantPool pool;
+    ClassBytes code;
+    // Where each quad starts in the current method, and branches waiting for their target
+    int[] quadOffsets;
+    int[] fixupAt;
+    int[] fixupQuad;
+    int fixupCount;
+    // Branches to the shared throws at the end of the method
+    int exhaustedFixups;
+    int[] exhaustedAt;
+    int overflowFixups;
+    int[] overflowAt;
+    // Which quads start a basic block
+    boolean[] leaders;
+
+    JitCompiler(Quads quads) {
+        this.quads = quads;
+        this.table = quads.symbolTable;
+        this.pool = new ConstantPool();
+        this.quadOffsets = new int[quads.count + 1];
+        this.fixupAt = new int[16];
+        this.fixupQuad = new int[16];
+        this.exhaustedAt = new int[16];
+        this.overflowAt = new int[16];
+        this.leaders = new boolean[quads.count + 1];
+    }
+
+    // Handle to the compiled main program with type RUN_TYPE, or null if the quads cannot be compiled
+    public static MethodHandle compile(Quads quads) {
+        byte[] classBytes = new JitCompiler(quads).classFile();
+        if (classBytes == null) {
+            return null;
+        }
+        try {
+            MethodHandles.Lookup program = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+            return program.findStatic(program.lookupClass(), "run", RUN_TYPE);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Generated class was rejected", e);
+        }
+    }
+
+    // The whole class file, null if a method is too long or a jump leaves its method
+    byte[] classFile() {
+        // method ranges: each entry runs up to the next one, main to the end
+        int[] starts = new int[table.symbolCount + 1];
+        int[] symbols = new int[table.symbolCount + 1];
+        int methodCount = 0;
+        for (int i = 0; i < table.symbolCount; i++) {
+            if (quads.procedureEntry(i) >= 0) {
+                starts[methodCount] = quads.procedureEntry(i);
+                symbols[methodCount++] = i;
+            }
+        }
+        starts[methodCount] = quads.mainEntry;
+        symbols[methodCount++] = -1;
+        Integer[] order = new Integer[methodCount];
+        for (int i = 0; i < methodCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(starts[a], starts[b]));
+
+        ClassBytes methods = new ClassBytes(1024);
+        for (int k = 0; k < methodCount; k++) {
+            int method = order[k];
+            int start = starts[method];
+            int end = k + 1 < methodCount ? starts[order[k + 1]] : quads.count;
+            if (k + 1 < methodCount && end == start) {
+                return null;
+            }
+            byte[] body = method(start, end);
+            if (body == null) {
+                return null;
+            }
+            methods.u2(0x0009); // public static
+            methods.u2(pool.utf8(methodName(symbols[method])));
+            methods.u2(pool.utf8(RUN_DESCRIPTOR));
+            methods.u2(1);
+            methods.u2(pool.utf8("Code"));
+            methods.u4(12 + body.length);
+            methods.u2(8); // max stack
+            methods.u2(4); // max locals: memory, fuel (two slots), depth
+            methods.u4(body.length);
+            methods.bytes(body, body.length);
+            methods.u2(0); // exception table
+            methods.u2(0); // attributes
+        }
+
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef("java/lang/Object");
+        ClassBytes file = new ClassBytes(pool.bytes.length + methods.length + 64);
+        file.u4(0xCAFEBABE);
+        file.u2(0);
+        file.u2(49);
+        file.u2(pool.count);
+        file.bytes(pool.bytes.data, pool.bytes.length);
+        file.u2(0x0031); // public final super
+        file.u2(thisClass);
+        file.u2(superClass);
+        file.u2(0); // interfaces
+        file.u2(0); // fields
+        file.u2(methodCount);
+        file.bytes(methods.data, methods.length);
+        file.u2(0); // attributes
+        return Arrays.copyOf(file.data, file.length);
+    }
+
+    static String methodName(int symbol) {
+        return symbol < 0 ? "run" : "p" + symbol;
+    }
+
+    // Bytecode for quads [start, end), null if it is too long or jumps outside the range
+    byte[] method(int start, int end) {
+        code = new ClassBytes(Math.max(64, (end - start) * 12));
+        fixupCount = 0;
+        exhaustedFixups = 0;
+        overflowFixups = 0;
+        if (!findLeaders(start, end)) {
+            return null;
+        }
+        for (int i = start; i < end; i++) {
+            quadOffsets[i] = code.length;
+            if (leaders[i]) {
+                int next = i + 1;
+                while (next < end && !leaders[next]) {
+                    next++;
+                }
+                useFuel(next - i);
+            }
+            int op = quads.ops[i];
+            int arg1 = quads.arg1s[i];
+            int arg2 = quads.arg2s[i];
+            int result = quads.results[i];
+            switch (op) {
+                case Quads.ASSIGN:
+                case Quads.NEG:
+                    storeStart(result);
+                    load(arg1);
+                    if (op == Quads.NEG) {
+                        code.u1(0x74); // ineg
+                    }
+                    code.u1(0x4F); // iastore
+                    break;
+                case Quads.ADD:
+                case Quads.SUB:
+                case Quads.MUL:
+                case Quads.DIV:
+                    storeStart(result);
+                    load(arg1);
+                    load(arg2);
+                    code.u1(ARITHMETIC_OPCODES[op - Quads.ADD]);
+                    code.u1(0x4F); // iastore
+                    break;
+                case Quads.JMP:
+                    branch(0xA7, result); // goto
+                    break;
+                case Quads.JEVEN:
+                    load(arg1);
+                    code.u1(0x04); // iconst_1
+                    code.u1(0x7E); // iand
+                    branch(0x99, result); // ifeq
+                    break;
+                case Quads.CALL:
+                    if (quads.procedureEntry(arg1) < 0) {
+                        return null;
+                    }
+                    code.u1(0x1D); // iload_3
+                    pushInt(VirtualMachine.MAX_CALL_DEPTH);
+                    if (overflowFixups == overflowAt.length) {
+                        overflowAt = Arrays.copyOf(overflowAt, overflowAt.length * 2);
+                    }
+                    overflowAt[overflowFixups++] = code.length;
+                    code.u1(0xA2); // if_icmpge
+                    code.u2(0);
+                    code.u1(0x2A); // aload_0
+                    code.u1(0x1F); // lload_1
+                    code.u1(0x1D); // iload_3
+                    code.u1(0x04); // iconst_1
+                    code.u1(0x60); // iadd
+                    code.u1(0xB8); // invokestatic
+                    code.u2(pool.methodRef(CLASS_NAME, methodName(arg1), RUN_DESCRIPTOR));
+                    code.u1(0x40); // lstore_1
+                    break;
+                case Quads.RETURN:
+                case Quads.HALT:
+                    code.u1(0x1F); // lload_1
+                    code.u1(0xAD); // lreturn
+                    break;
+                default:
+                    // conditional jumps JEQ..JGE
+                    load(arg1);
+                    load(arg2);
+                    branch(COMPARE_OPCODES[op - Quads.JEQ], result);
+                    break;
+            }
+        }
+        // falling off the end of a range returns, as RETURN would
+        quadOffsets[end] = code.length;
+        code.u1(0x1F); // lload_1
+        code.u1(0xAD); // lreturn
+
+        int exhausted = code.length;
+        if (exhaustedFixups > 0) {
+            code.u1(0xB8); // invokestatic JitCompiler.stepLimit
+            code.u2(pool.methodRef("JitCompiler", "stepLimit", "()Ljava/lang/RuntimeException;"));
+            code.u1(0xBF); // athrow
+        }
+        int overflow = code.length;
+        if (overflowFixups > 0) {
+            code.u1(0xB8); // invokestatic JitCompiler.callDepth
+            code.u2(pool.methodRef("JitCompiler", "callDepth", "()Ljava/lang/RuntimeException;"));
+            code.u1(0xBF); // athrow
+        }
+        if (code.length > MAX_METHOD_BYTES) {
+            return null;
+        }
+        for (int f = 0; f < fixupCount; f++) {
+            code.patch2(fixupAt[f] + 1, quadOffsets[fixupQuad[f]] - fixupAt[f]);
+        }
+        for (int f = 0; f < exhaustedFixups; f++) {
+            code.patch2(exhaustedAt[f] + 1, exhausted - exhaustedAt[f]);
+        }
+        for (int f = 0; f < overflowFixups; f++) {
+            code.patch2(overflowAt[f] + 1, overflow - overflowAt[f]);
+        }
+        return Arrays.copyOf(code.data, code.length);
+    }
+
+    // Marks the first quad of each basic block in [start, end): the range start, jump targets and
+    // whatever follows a jump, CALL, RETURN, HALT or DIV. False if a jump leaves the range.
+    boolean findLeaders(int start, int end) {
+        Arrays.fill(leaders, start, end + 1, false);
+        leaders[start] = true;
+        for (int i = start; i < end; i++) {
+            int op = quads.ops[i];
+            if (Quads.isJump(op)) {
+                int target = quads.results[i];
+                if (target < start || target > end) {
+                    return false;
+                }
+                leaders[target] = true;
+            }
+            if (Quads.isJump(op) || op == Quads.CALL || op == Quads.RETURN || op == Quads.HALT || op == Quads.DIV) {
+                leaders[i + 1] = true;
+            }
+        }
+        return true;
+    }
+
+    static final int[] ARITHMETIC_OPCODES = {0x60, 0x64, 0x68, 0x6C}; // iadd isub imul idiv
+    // Indexed from JEQ: if_icmpeq if_icmpne if_icmplt if_icmple if_icmpgt if_icmpge
+    static final int[] COMPARE_OPCODES = {0x9F, 0xA0, 0xA1, 0xA4, 0xA3, 0xA2};
+
+    // memory and the slot index, ready for the value and iastore
+    void storeStart(int symbol) {
+        code.u1(0x2A); // aload_0
+        pushInt(VirtualMachine.slot(table, symbol));
+    }
+
+    // Pushes an operand: constants inline, everything else from memory
+    void load(int symbol) {
+        if (isConstantEntry(symbol)) {
+            pushInt((int) table.value(symbol));
+            return;
+        }
+        code.u1(0x2A); // aload_0
+        pushInt(VirtualMachine.slot(table, symbol));
+        code.u1(0x2E); // iaload
+    }
+
+    boolean isConstantEntry(int symbol) {
+        Classification classification = table.classification(symbol);
+        return (classification == Classification.CONSTVAR || classification == Classification.NUMERIC_LITERAL)
+            && table.hasNumericValue(symbol);
+    }
+
+    void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            code.u1(0x03 + value); // iconst_<n>
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.u1(0x10); // bipush
+            code.u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.u1(0x11); // sipush
+            code.u2(value);
+        } else {
+            code.u1(0x13); // ldc_w
+            code.u2(pool.integer(value));
+        }
+    }
+
+    // fuel -= instructions, then to the shared throw when it goes negative
+    void useFuel(int instructions) {
+        code.u1(0x1F); // lload_1
+        pushInt(instructions);
+        code.u1(0x85); // i2l
+        code.u1(0x65); // lsub
+        code.u1(0x5C); // dup2
+        code.u1(0x40); // lstore_1
+        code.u1(0x09); // lconst_0
+        code.u1(0x94); // lcmp
+        if (exhaustedFixups == exhaustedAt.length) {
+            exhaustedAt = Arrays.copyOf(exhaustedAt, exhaustedAt.length * 2);
+        }
+        exhaustedAt[exhaustedFixups++] = code.length;
+        code.u1(0x9B); // iflt
+        code.u2(0);
+    }
+
+    void branch(int opcode, int targetQuad) {
+        if (fixupCount == fixupAt.length) {
+            fixupAt = Arrays.copyOf(fixupAt, fixupCount * 2);
+            fixupQuad = Arrays.copyOf(fixupQuad, fixupCount * 2);
+        }
+        fixupAt[fixupCount] = code.length;
+        fixupQuad[fixupCount++] = targetQuad;
+        code.u1(opcode);
+        code.u2(0);
+    }
+
+    // Growable big-endian byte array
+    static class ClassBytes {
+        byte[] data;
+        int length;
+
+        ClassBytes(int startSize) {
+            data = new byte[startSize];
+            length = 0;
+        }
+
+        void ensure(int extra) {
+            if (length + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(length + extra, data.length * 2));
+            }
+        }
+
+        void u1(int value) {
+            ensure(1);
+            data[length++] = (byte) value;
+        }
+
+        void u2(int value) {
+            ensure(2);
+            data[length++] = (byte) (value >>> 8);
+            data[length++] = (byte) value;
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        void bytes(byte[] source, int count) {
+            ensure(count);
+            System.arraycopy(source, 0, data, length, count);
+            length += count;
+        }
+
+        void patch2(int at, int value) {
+            data[at] = (byte) (value >>> 8);
+            data[at + 1] = (byte) value;
+        }
+    }
+
+    // Constant pool entries, each written once
+    static class ConstantPool {
+        ClassBytes bytes = new ClassBytes(256);
+        Map<String, Integer> indexes = new HashMap<>();
+        // Next free index, also the count written to the class file
+        int count = 1;
+
+        int utf8(String text) {
+            Integer index = indexes.get("U" + text);
+            if (index != null) {
+                return index;
+            }
+            bytes.u1(1);
+            bytes.u2(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                bytes.u1(text.charAt(i));
+            }
+            return add("U" + text);
+        }
+
+        int integer(int value) {
+            Integer index = indexes.get("I" + value);
+            if (index != null) {
+                return index;
+            }
+            bytes.u1(3);
+            bytes.u4(value);
+            return add("I" + value);
+        }
+
+        int classRef(String name) {
+            Integer index = indexes.get("C" + name);
+            if (index != null) {
+                return index;
+            }
+            int nameIndex = utf8(name);
+            bytes.u1(7);
+            bytes.u2(nameIndex);
+            return add("C" + name);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            String key = "M" + owner + '.' + name + descriptor;
+            Integer index = indexes.get(key);
+            if (index != null) {
+                return index;
+            }
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            bytes.u1(12); // NameAndType
+            bytes.u2(nameIndex);
+            bytes.u2(descriptorIndex);
+            int nameAndType = add("N" + key);
+            bytes.u1(10); // Methodref
+            bytes.u2(ownerIndex);
+            bytes.u2(nameAndType);
+            return add(key);
+        }
+
+        int add(String key) {
+            indexes.put(key, count);
+            return count++;
+        }
+    }
+
+    // Runs a source file with the interpreter and as bytecode, checks they agree and times both.
+    // Usage: JitCompiler [file] [runs]
+    //        JitCompiler --bench [programs] [sizeKB] [runs]
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--bench")) {
+            int programs = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+            int sizeKB = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+            int runs = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+            VirtualMachine[] machines = new VirtualMachine[programs];
+            for (int i = 0; i < programs; i++) {
+                machines[i] = VirtualMachine.compile(new Scanner(ProgramGenerator.generate(sizeKB * 1024, i + 1)).getPackedTokens(), true);
+            }
+            compare(machines, runs);
+            return;
+        }
+        Path sourceFile = Path.of(args.length > 0 ? args[0] : "Program_Text.txt");
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        VirtualMachine machine = VirtualMachine.compile(new Scanner(CharacterReader.fromFile(sourceFile)).getPackedTokens(), true);
+        compare(new VirtualMachine[] {machine}, runs);
+    }
+
+    // Times run against runCompiled from a cold start, then checks every program's bytecode
+    static void compare(VirtualMachine[] machines, int runs) {
+        for (int round = 0; round < 3; round++) {
+            long interpreterNanos = 0;
+            long bytecodeNanos = 0;
+            for (VirtualMachine machine : machines) {
+                long start = System.nanoTime();
+                for (int run = 0; run < runs; run++) {
+                    machine.run(VirtualMachine.DEFAULT_STEP_LIMIT);
+                }
+                long middle = System.nanoTime();
+                for (int run = 0; run < runs; run++) {
+                    machine.runCompiled(VirtualMachine.DEFAULT_STEP_LIMIT);
+                }
+                bytecodeNanos += System.nanoTime() - middle;
+                interpreterNanos += middle - start;
+            }
+            long total = (long) machines.length * runs;
+            System.out.printf("%d runs: interpreter %.0f runs/s, runCompiled %.0f runs/s (%.1fx)%n",
+                total, total * 1e9 / interpreterNanos, total * 1e9 / bytecodeNanos, (double) interpreterNanos / bytecodeNanos);
+        }
+        int compiled = 0;
+        int mismatches = 0;
+        for (VirtualMachine machine : machines) {
+            if (!machine.compileToBytecode()) {
+                continue;
+            }
+            compiled++;
+            machine.run(VirtualMachine.DEFAULT_STEP_LIMIT);
+            int[] interpreted = machine.memory.clone();
+            int status = machine.status;
+            long steps = machine.steps;
+            machine.runCompiled(VirtualMachine.DEFAULT_STEP_LIMIT);
+            if (machine.status != status || machine.steps != steps
+                    || (status == VirtualMachine.HALTED && !Arrays.equals(interpreted, machine.memory))) {
+                mismatches++;
+            }
+        }
+        System.out.println(compiled + " of " + machines.length + " programs compiled to bytecode, " + mismatches + " mismatches");
+    }
+}
@@ -0,0 +1,547 @@
+//LexerGenerator.java
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+// Compiles a regex-style token spec into the minimized DFA tables the scanner runs on.
+// Each rule is {name, regex}; name is a TokenType, SKIP for text between tokens, or OPEN_COMMENT
+// for a comment that is still open at the end of the input. On equal match lengths the earlier
+// rule wins. Regexes support literals, \escapes, [sets] with ranges and ^, (groups), |, *, + and ?.
+// Pipeline: Thompson NFA -> character equivalence classes -> subset construction -> Hopcroft minimization.
+public class LexerGenerator {
+    static final int ALPHABET_SIZE = 256;
+    // Accept codes besides TokenType ordinals
+    static final int NO_ACCEPT = -1;
+    static final int ACCEPT_SKIP = -2;
+    static final int ACCEPT_OPEN_COMMENT = -3;
+
+    // Tables the scanner runs on
+    public static class LexerTables {
+        // Equivalence class of every Latin-1 character; the spec only names ASCII characters,
+        // so anything above 0xFF behaves like 0xFF
+        byte[] charClasses;
+        int classCount;
+        // Next state for state * classCount + class, -1 when no token can continue
+        byte[] transitions;
+        int stateCount;
+        // TokenType ordinal, ACCEPT_SKIP, ACCEPT_OPEN_COMMENT or NO_ACCEPT for each state
+        int[] accepts;
+        // Most characters the scanner can read past the end of a token before it stops
+        int maxLookahead;
+
+        int classOf(char ch) {
+            return charClasses[ch < ALPHABET_SIZE ? ch : ALPHABET_SIZE - 1];
+        }
+
+        // State reached from the start state on the given text, -1 if it dies on the way
+        int stateAfter(String text) {
+            int state = 0;
+            for (int i = 0; i < text.length() && state >= 0; i++) {
+                state = transitions[state * classCount + classOf(text.charAt(i))];
+            }
+            return state;
+        }
+    }
+
+    // Thompson NFA node: either a character-set edge to next, or only epsilon edges
+    static class NfaState {
+        int id;
+        boolean[] chars;
+        NfaState next;
+        List<NfaState> epsilons = new ArrayList<>();
+        int rule = -1;
+    }
+
+    // Start and end of a partly built NFA
+    static class Fragment {
+        NfaState start;
+        NfaState end;
+
+        Fragment(NfaState start, NfaState end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    List<NfaState> nfaStates = new ArrayList<>();
+    String pattern;
+    int cursor;
+
+    public static LexerTables generate(String[][] spec) {
+        return new LexerGenerator().build(spec);
+    }
+
+    LexerTables build(String[][] spec) {
+        int[] ruleCodes = new int[spec.length];
+        NfaState start = newState();
+        for (int rule = 0; rule < spec.length; rule++) {
+            ruleCodes[rule] = acceptCode(spec[rule][0]);
+            Fragment fragment = parse(spec[rule][1]);
+            fragment.end.rule = rule;
+            start.epsilons.add(fragment.start);
+        }
+
+        int[] charClasses = new int[ALPHABET_SIZE];
+        int classCount = equivalenceClasses(charClasses);
+        char[] representatives = new char[classCount];
+        for (int ch = ALPHABET_SIZE - 1; ch >= 0; ch--) {
+            representatives[charClasses[ch]] = (char) ch;
+        }
+
+        // Subset construction, dfaTransitions uses -1 for the empty set
+        List<BitSet> dfaStates = new ArrayList<>();
+        HashMap<BitSet, Integer> dfaIds = new HashMap<>();
+        List<int[]> dfaTransitions = new ArrayList<>();
+        BitSet startSet = new BitSet();
+        startSet.set(start.id);
+        closure(startSet);
+        dfaStates.add(startSet);
+        dfaIds.put(startSet, 0);
+        for (int state = 0; state < dfaStates.size(); state++) {
+            int[] row = new int[classCount];
+            for (int charClass = 0; charClass < classCount; charClass++) {
+                BitSet moved = move(dfaStates.get(state), representatives[charClass]);
+                if (moved.isEmpty()) {
+                    row[charClass] = -1;
+                    continue;
+                }
+                closure(moved);
+                Integer id = dfaIds.get(moved);
+                if (id == null) {
+                    id = dfaStates.size();
+                    dfaStates.add(moved);
+                    dfaIds.put(moved, id);
+                }
+                row[charClass] = id;
+            }
+            dfaTransitions.add(row);
+        }
+
+        int[] dfaAccepts = new int[dfaStates.size()];
+        for (int state = 0; state < dfaAccepts.length; state++) {
+            int bestRule = Integer.MAX_VALUE;
+            BitSet members = dfaStates.get(state);
+            for (int nfa = members.nextSetBit(0); nfa >= 0; nfa = members.nextSetBit(nfa + 1)) {
+                int rule = nfaStates.get(nfa).rule;
+                if (rule >= 0 && rule < bestRule) {
+                    bestRule = rule;
+                }
+            }
+            dfaAccepts[state] = bestRule == Integer.MAX_VALUE ? NO_ACCEPT : ruleCodes[bestRule];
+        }
+
+        return minimize(dfaTransitions, dfaAccepts, charClasses, classCount);
+    }
+
+    static int acceptCode(String name) {
+        if (name.equals("SKIP")) {
+            return ACCEPT_SKIP;
+        }
+        if (name.equals("OPEN_COMMENT")) {
+            return ACCEPT_OPEN_COMMENT;
+        }
+        return TokenType.valueOf(name).ordinal();
+    }
+
+    NfaState newState() {
+        NfaState state = new NfaState();
+        state.id = nfaStates.size();
+        nfaStates.add(state);
+        return state;
+    }
+
+    // ---- regex parser, builds the NFA as it goes ----
+
+    Fragment parse(String regex) {
+        pattern = regex;
+        cursor = 0;
+        Fragment fragment = alternation();
+        if (cursor != pattern.length()) {
+            throw new IllegalArgumentException("Unexpected '" + pattern.charAt(cursor) + "' at " + cursor + " in " + pattern);
+        }
+        return fragment;
+    }
+
+    Fragment alternation() {
+        Fragment left = concatenation();
+        if (cursor >= pattern.length() || pattern.charAt(cursor) != '|') {
+            return left;
+        }
+        NfaState start = newState();
+        NfaState end = newState();
+        start.epsilons.add(left.start);
+        left.end.epsilons.add(end);
+        while (cursor < pattern.length() && pattern.charAt(cursor) == '|') {
+            cursor++;
+            Fragment right = concatenation();
+            start.epsilons.add(right.start);
+            right.end.epsilons.add(end);
+        }
+        return new Fragment(start, end);
+    }
+
+    Fragment concatenation() {
+        NfaState start = newState();
+        Fragment result = new Fragment(start, start);
+        while (cursor < pattern.length() && pattern.charAt(cursor) != '|' && pattern.charAt(cursor) != ')') {
+            Fragment next = repetition();
+            result.end.epsilons.add(next.start);
+            result.end = next.end;
+        }
+        return result;
+    }
+
+    Fragment repetition() {
+        Fragment atom = atom();
+        while (cursor < pattern.length()) {
+            char op = pattern.charAt(cursor);
+            if (op != '*' && op != '+' && op != '?') {
+                break;
+            }
+            cursor++;
+            NfaState start = newState();
+            NfaState end = newState();
+            start.epsilons.add(atom.start);
+            atom.end.epsilons.add(end);
+            if (op != '+') {
+                start.epsilons.add(end);
+            }
+            if (op != '?') {
+                atom.end.epsilons.add(atom.start);
+            }
+            atom = new Fragment(start, end);
+        }
+        return atom;
+    }
+
+    Fragment atom() {
+        char ch = pattern.charAt(cursor++);
+        if (ch == '(') {
+            Fragment inner = alternation();
+            expect(')');
+            return inner;
+        }
+        boolean[] chars = new boolean[ALPHABET_SIZE];
+        if (ch == '[') {
+            boolean negated = cursor < pattern.length() && pattern.charAt(cursor) == '^';
+            if (negated) {
+                cursor++;
+            }
+            while (cursor < pattern.length() && pattern.charAt(cursor) != ']') {
+                char low = literal(pattern.charAt(cursor++));
+                char high = low;
+                if (cursor + 1 < pattern.length() && pattern.charAt(cursor) == '-' && pattern.charAt(cursor + 1) != ']') {
+                    cursor++;
+                    high = literal(pattern.charAt(cursor++));
+                }
+                for (char c = low; c <= high; c++) {
+                    chars[c] = true;
+                }
+            }
+            expect(']');
+            if (negated) {
+                for (int c = 0; c < ALPHABET_SIZE; c++) {
+                    chars[c] = !chars[c];
+                }
+            }
+        } else {
+            chars[literal(ch)] = true;
+        }
+        NfaState start = newState();
+        NfaState end = newState();
+        start.chars = chars;
+        start.next = end;
+        return new Fragment(start, end);
+    }
+
+    // The character an atom stands for, after a \ escape if there is one
+    char literal(char ch) {
+        if (ch == '\\') {
+            char escaped = pattern.charAt(cursor++);
+            switch (escaped) {
+                case 't':
+                    ch = '\t';
+                    break;
+                case 'n':
+                    ch = '\n';
+                    break;
+                case 'r':
+                    ch = '\r';
+                    break;
+                default:
+                    ch = escaped;
+                    break;
+            }
+        }
+        if (ch >= 0x80) {
+            throw new IllegalArgumentException("Token spec may only name ASCII characters: " + pattern);
+        }
+        return ch;
+    }
+
+    void expect(char ch) {
+        if (cursor >= pattern.length() || pattern.charAt(cursor) != ch) {
+            throw new IllegalArgumentException("Expected '" + ch + "' at " + cursor + " in " + pattern);
+        }
+        cursor++;
+    }
+
+    // ---- subset construction ----
+
+    // Characters that every character-set edge treats the same way share a class
+    int equivalenceClasses(int[] charClasses) {
+        HashMap<String, Integer> classIds = new HashMap<>();
+        StringBuilder signature = new StringBuilder();
+        for (int ch = 0; ch < ALPHABET_SIZE; ch++) {
+            signature.setLength(0);
+            for (NfaState state : nfaStates) {
+                if (state.chars != null) {
+                    signature.append(state.chars[ch] ? '1' : '0');
+                }
+            }
+            Integer id = classIds.get(signature.toString());
+            if (id == null) {
+                id = classIds.size();
+                classIds.put(signature.toString(), id);
+            }
+            charClasses[ch] = id;
+        }
+        return classIds.size();
+    }
+
+    void closure(BitSet set) {
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        for (int id = set.nextSetBit(0); id >= 0; id = set.nextSetBit(id + 1)) {
+            pending.push(id);
+        }
+        while (!pending.isEmpty()) {
+            for (NfaState target : nfaStates.get(pending.pop()).epsilons) {
+                if (!set.get(target.id)) {
+                    set.set(target.id);
+                    pending.push(target.id);
+                }
+            }
+        }
+    }
+
+    BitSet move(BitSet set, char ch) {
+        BitSet moved = new BitSet();
+        for (int id = set.nextSetBit(0); id >= 0; id = set.nextSetBit(id + 1)) {
+            NfaState state = nfaStates.get(id);
+            if (state.chars != null && state.chars[ch]) {
+                moved.set(state.next.id);
+            }
+        }
+        return moved;
+    }
+
+    // ---- Hopcroft minimization ----
+
+    static LexerTables minimize(List<int[]> rows, int[] accepts, int[] charClasses, int classCount) {
+        // an explicit dead state makes the transition function total
+        int dead = rows.size();
+        int stateCount = dead + 1;
+        int[][] delta = new int[stateCount][];
+        for (int state = 0; state < dead; state++) {
+            delta[state] = new int[classCount];
+            for (int charClass = 0; charClass < classCount; charClass++) {
+                int target = rows.get(state)[charClass];
+                delta[state][charClass] = target < 0 ? dead : target;
+            }
+        }
+        delta[dead] = new int[classCount];
+        for (int charClass = 0; charClass < classCount; charClass++) {
+            delta[dead][charClass] = dead;
+        }
+
+        // inverse transitions: predecessors[class][state] lists states that go to state on class
+        List<List<List<Integer>>> predecessors = new ArrayList<>();
+        for (int charClass = 0; charClass < classCount; charClass++) {
+            List<List<Integer>> byTarget = new ArrayList<>();
+            for (int state = 0; state < stateCount; state++) {
+                byTarget.add(new ArrayList<>());
+            }
+            for (int state = 0; state < stateCount; state++) {
+                byTarget.get(delta[state][charClass]).add(state);
+            }
+            predecessors.add(byTarget);
+        }
+
+        // initial partition: one block per accept code, the dead state is NO_ACCEPT
+        List<BitSet> blocks = new ArrayList<>();
+        HashMap<Integer, Integer> blockForAccept = new HashMap<>();
+        for (int state = 0; state < stateCount; state++) {
+            int accept = state == dead ? NO_ACCEPT : accepts[state];
+            Integer block = blockForAccept.get(accept);
+            if (block == null) {
+                block = blocks.size();
+                blocks.add(new BitSet());
+                blockForAccept.put(accept, block);
+            }
+            blocks.get(block).set(state);
+        }
+
+        ArrayDeque<BitSet> worklist = new ArrayDeque<>(blocks);
+        while (!worklist.isEmpty()) {
+            BitSet splitter = worklist.pop();
+            for (int charClass = 0; charClass < classCount; charClass++) {
+                BitSet incoming = new BitSet();
+                for (int target = splitter.nextSetBit(0); target >= 0; target = splitter.nextSetBit(target + 1)) {
+                    for (int source : predecessors.get(charClass).get(target)) {
+                        incoming.set(source);
+                    }
+                }
+                if (incoming.isEmpty()) {
+                    continue;
+                }
+                for (int i = 0; i < blocks.size(); i++) {
+                    BitSet block = blocks.get(i);
+                    BitSet inside = (BitSet) block.clone();
+                    inside.and(incoming);
+                    if (inside.isEmpty() || inside.cardinality() == block.cardinality()) {
+                        continue;
+                    }
+                    BitSet outside = (BitSet) block.clone();
+                    outside.andNot(incoming);
+                    blocks.set(i, inside);
+                    blocks.add(outside);
+                    if (worklist.remove(block)) {
+                        worklist.push(inside);
+                        worklist.push(outside);
+                    } else {
+                        worklist.push(inside.cardinality() <= outside.cardinality() ? inside : outside);
+                    }
+                }
+            }
+        }
+
+        int[] blockOf = new int[stateCount];
+        for (int i = 0; i < blocks.size(); i++) {
+            BitSet block = blocks.get(i);
+            for (int state = block.nextSetBit(0); state >= 0; state = block.nextSetBit(state + 1)) {
+                blockOf[state] = i;
+            }
+        }
+
+        // number the blocks breadth first from the start state, the dead block becomes -1
+        int[] number = new int[blocks.size()];
+        for (int i = 0; i < number.length; i++) {
+            number[i] = -1;
+        }
+        int[] order = new int[blocks.size()];
+        int numbered = 0;
+        number[blockOf[0]] = numbered;
+        order[numbered++] = blockOf[0];
+        for (int next = 0; next < numbered; next++) {
+            int state = blocks.get(order[next]).nextSetBit(0);
+            for (int charClass = 0; charClass < classCount; charClass++) {
+                int target = blockOf[delta[state][charClass]];
+                if (target != blockOf[dead] && number[target] < 0) {
+                    number[target] = numbered;
+                    order[numbered++] = target;
+                }
+            }
+        }
+        if (numbered > Byte.MAX_VALUE) {
+            throw new IllegalStateException("Lexer DFA has " + numbered + " states, more than a byte table holds");
+        }
+
+        LexerTables tables = new LexerTables();
+        tables.classCount = classCount;
+        tables.stateCount = numbered;
+        tables.charClasses = new byte[ALPHABET_SIZE];
+        for (int ch = 0; ch < ALPHABET_SIZE; ch++) {
+            tables.charClasses[ch] = (byte) charClasses[ch];
+        }
+        tables.transitions = new byte[numbered * classCount];
+        tables.accepts = new int[numbered];
+        for (int i = 0; i < numbered; i++) {
+            int state = blocks.get(order[i]).nextSetBit(0);
+            tables.accepts[i] = accepts[state];
+            for (int charClass = 0; charClass < classCount; charClass++) {
+                int target = blockOf[delta[state][charClass]];
+                tables.transitions[i * classCount + charClass] = (byte) (target == blockOf[dead] ? -1 : number[target]);
+            }
+        }
+        tables.maxLookahead = maxLookahead(tables);
+        return tables;
+    }
+
+    // After the last accepting state the scanner keeps reading through non-accepting states until
+    // it dies: the longest such run plus the character that kills it. Unbounded if they loop.
+    static int maxLookahead(LexerTables tables) {
+        int[] longest = new int[tables.stateCount];
+        int deepest = 0;
+        for (int state = 0; state < tables.stateCount; state++) {
+            if (tables.accepts[state] == NO_ACCEPT) {
+                continue;
+            }
+            int run = nonAcceptingRun(tables, state, new boolean[tables.stateCount], longest);
+            if (run == Integer.MAX_VALUE) {
+                return Integer.MAX_VALUE;
+            }
+            deepest = Math.max(deepest, run);
+        }
+        return deepest + 1;
+    }
+
+    // Longest path from state through non-accepting states (not counting state itself)
+    static int nonAcceptingRun(LexerTables tables, int state, boolean[] onPath, int[] longest) {
+        if (longest[state] > 0) {
+            return longest[state] - 1;
+        }
+        onPath[state] = true;
+        int best = 0;
+        for (int charClass = 0; charClass < tables.classCount; charClass++) {
+            int target = tables.transitions[state * tables.classCount + charClass];
+            if (target <= 0 || tables.accepts[target] != NO_ACCEPT) {
+                continue;
+            }
+            if (onPath[target]) {
+                return Integer.MAX_VALUE;
+            }
+            int run = nonAcceptingRun(tables, target, onPath, longest);
+            if (run == Integer.MAX_VALUE) {
+                return run;
+            }
+            best = Math.max(best, run + 1);
+        }
+        onPath[state] = false;
+        longest[state] = best + 1;
+        return best;
+    }
+
+    // Prints the generated tables for the scanner's spec
+    public static void main(String[] args) {
+        LexerTables tables = generate(Scanner.TokenSpec());
+        System.out.println("states " + tables.stateCount + ", character classes " + tables.classCount
+            + ", max lookahead " + tables.maxLookahead);
+        StringBuilder classes = new StringBuilder("char classes:");
+        for (int ch = 0; ch < 128; ch++) {
+            classes.append(' ').append(tables.charClasses[ch]);
+        }
+        System.out.println(classes);
+        for (int state = 0; state < tables.stateCount; state++) {
+            StringBuilder row = new StringBuilder(String.format("%3d %-18s", state, acceptName(tables.accepts[state])));
+            for (int charClass = 0; charClass < tables.classCount; charClass++) {
+                row.append(String.format("%4d", tables.transitions[state * tables.classCount + charClass]));
+            }
+            System.out.println(row);
+        }
+    }
+
+    static String acceptName(int accept) {
+        switch (accept) {
+            case NO_ACCEPT:
+                return "-";
+            case ACCEPT_SKIP:
+                return "SKIP";
+            case ACCEPT_OPEN_COMMENT:
+                return "OPEN_COMMENT";
+            default:
+                return TokenType.values()[accept].name();
+        }
+    }
+}
@@ -0,0 +1,563 @@
+//Optimizer.java
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// Optimizing passes over generated quads, repeated until nothing changes or the pass limit is hit.
+// Each pass works a region at a time: a region is a basic block, also cut after every CALL since a
+// procedure may write any variable. Forward over each region it
+//   - substitutes copies and known constants into operands (Constvar and literal entries are always
+//     known, a variable is known after it is assigned a constant in the same region),
+//   - folds operations and conditional jumps whose operands are all constant,
+//   - replaces an operation already computed in the region, with the same operands, by a copy (CSE).
+// Backward over each region it drops stores nothing reads: temps are dead at the end of a region,
+// variables are treated as live there. Code after a jump, RETURN or HALT that no jump reaches is
+// dropped too, then the quads are compacted and jump targets renumbered.
+// Arithmetic follows the VM: 32-bit int, division truncates, division by zero is never folded.
+public class Optimizer {
+    static final int DEFAULT_MAX_PASSES = 8;
+
+    Quads quads;
+    SymbolTable table;
+    boolean[] removed;
+    boolean[] leaders;
+    boolean[] isTemp;
+    // Region the knowledge about each symbol belongs to; anything from an older region is stale
+    int region;
+    int[] knownRegion;
+    int[] knownValues;
+    int[] copyRegion;
+    int[] copySources;
+    int[] copySourceVersions;
+    // Bumped on every write to a symbol, so recorded expressions notice their operands changed
+    int[] versions;
+    // Available expressions: (op, arg1, arg2) to the quad computing it, with the versions it saw.
+    // expressionKeys/expressionTable are an open-addressing map from key to slot + 1.
+    long[] expressionKeys;
+    int[] expressionTable;
+    int[] expressionQuads;
+    int[] expressionRegions;
+    int[] expressionVersions;
+    int expressionCount;
+    // Literal entry by value, so folding does not go through the name index each time
+    HashMap<Integer, Integer> literals = new HashMap<>();
+    boolean changed;
+
+    Optimizer(Quads quads) {
+        this.quads = quads;
+        this.table = quads.symbolTable;
+    }
+
+    // Optimizes in place and returns how many passes changed the code
+    public static int optimize(Quads quads, int maxPasses) {
+        Optimizer optimizer = new Optimizer(quads);
+        int passes = 0;
+        while (passes < maxPasses && optimizer.runPass()) {
+            passes++;
+        }
+        return passes;
+    }
+
+    public static int optimize(Quads quads) {
+        return optimize(quads, DEFAULT_MAX_PASSES);
+    }
+
+    boolean runPass() {
+        changed = false;
+        int count = quads.count;
+        removed = new boolean[count];
+        findLeaders();
+        prepareSymbols();
+        markTemps();
+        for (int i = 0; i < count; i++) {
+            if (leaders[i]) {
+                region++;
+            }
+            forward(i);
+            if (quads.ops[i] == Quads.CALL) {
+                region++;
+            }
+        }
+        removeDeadStores();
+        removeUnreachable();
+        compact();
+        return changed;
+    }
+
+    // Quads that start a basic block: entry points, jump targets and whatever follows a jump
+    void findLeaders() {
+        int count = quads.count;
+        leaders = new boolean[count + 1];
+        leaders[0] = true;
+        if (quads.mainEntry >= 0 && quads.mainEntry < count) {
+            leaders[quads.mainEntry] = true;
+        }
+        for (int i = 0; i < quads.procedureEntries.length; i++) {
+            if (quads.procedureEntries[i] >= 0) {
+                leaders[quads.procedureEntries[i]] = true;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int op = quads.ops[i];
+            if (Quads.isJump(op)) {
+                leaders[quads.results[i]] = true;
+            }
+            if (Quads.isJump(op) || op == Quads.RETURN || op == Quads.HALT) {
+                leaders[i + 1] = true;
+            }
+        }
+    }
+
+    // Per-symbol arrays sized to the table, which grows as folded literals are added
+    void prepareSymbols() {
+        int size = table.symbolCount + 16;
+        if (isTemp == null || isTemp.length < size) {
+            isTemp = new boolean[size * 2];
+            knownRegion = Arrays.copyOf(knownRegion == null ? new int[0] : knownRegion, size * 2);
+            knownValues = Arrays.copyOf(knownValues == null ? new int[0] : knownValues, size * 2);
+            copyRegion = Arrays.copyOf(copyRegion == null ? new int[0] : copyRegion, size * 2);
+            copySources = Arrays.copyOf(copySources == null ? new int[0] : copySources, size * 2);
+            copySourceVersions = Arrays.copyOf(copySourceVersions == null ? new int[0] : copySourceVersions, size * 2);
+            versions = Arrays.copyOf(versions == null ? new int[0] : versions, size * 2);
+        }
+        int tableSize = Integer.highestOneBit(Math.max(quads.count, 32)) * 4;
+        expressionKeys = new long[tableSize];
+        expressionTable = new int[tableSize];
+        expressionQuads = new int[64];
+        expressionRegions = new int[64];
+        expressionVersions = new int[64 * 3];
+        expressionCount = 0;
+    }
+
+    // Temps are the entries the code generator made for itself, and only those whose every read
+    // follows a write in the same region; anything else is kept live like a variable, since its
+    // stores cannot be shown to be dead at the end of a region.
+    void markTemps() {
+        Arrays.fill(isTemp, false);
+        for (int entry : quads.tempEntries) {
+            isTemp[entry] = true;
+        }
+        int[] writtenIn = new int[isTemp.length];
+        int current = 0;
+        for (int i = 0; i < quads.count; i++) {
+            if (leaders[i]) {
+                current++;
+            }
+            int op = quads.ops[i];
+            if (op != Quads.CALL) {
+                checkTempRead(quads.arg1s[i], writtenIn, current);
+                checkTempRead(quads.arg2s[i], writtenIn, current);
+            }
+            if ((op == Quads.ASSIGN || Quads.isArithmetic(op)) && quads.results[i] >= 0) {
+                writtenIn[quads.results[i]] = current;
+            }
+            if (op == Quads.CALL) {
+                current++;
+            }
+        }
+    }
+
+    void checkTempRead(int symbol, int[] writtenIn, int current) {
+        if (symbol >= 0 && isTemp[symbol] && writtenIn[symbol] != current) {
+            isTemp[symbol] = false;
+        }
+    }
+
+    // Constvar and literal entries hold their value for the whole program
+    boolean isConstantEntry(int symbol) {
+        Classification classification = table.classification(symbol);
+        return (classification == Classification.CONSTVAR || classification == Classification.NUMERIC_LITERAL)
+            && table.hasNumericValue(symbol) && (int) table.value(symbol) == table.value(symbol);
+    }
+
+    boolean isKnown(int symbol) {
+        return symbol >= 0 && (isConstantEntry(symbol) || knownRegion[symbol] == region);
+    }
+
+    int knownValue(int symbol) {
+        return knownRegion[symbol] == region ? knownValues[symbol] : (int) table.value(symbol);
+    }
+
+    // Literal entry holding value, added to DS if there is none yet
+    int literalFor(int value) {
+        Integer known = literals.get(value);
+        if (known != null) {
+            return known;
+        }
+        String name = Integer.toString(value);
+        int index = SymbolTable.lookupSymbolIndex(table, name);
+        if (index < 0 || table.classification(index) != Classification.NUMERIC_LITERAL) {
+            table.addSymbol(name, Classification.NUMERIC_LITERAL, name, table.dataAddress, SymbolTable.SEGMENT_DS);
+            table.dataAddress += 2;
+            index = table.symbolCount - 1;
+            prepareSymbolsFor(index);
+        }
+        literals.put(value, index);
+        return index;
+    }
+
+    void prepareSymbolsFor(int index) {
+        if (index >= isTemp.length) {
+            int size = index * 2;
+            isTemp = Arrays.copyOf(isTemp, size);
+            knownRegion = Arrays.copyOf(knownRegion, size);
+            knownValues = Arrays.copyOf(knownValues, size);
+            copyRegion = Arrays.copyOf(copyRegion, size);
+            copySources = Arrays.copyOf(copySources, size);
+            copySourceVersions = Arrays.copyOf(copySourceVersions, size);
+            versions = Arrays.copyOf(versions, size);
+        }
+    }
+
+    // Operand after copy and constant substitution
+    int substitute(int symbol) {
+        if (symbol < 0) {
+            return symbol;
+        }
+        if (copyRegion[symbol] == region && versions[copySources[symbol]] == copySourceVersions[symbol]) {
+            symbol = copySources[symbol];
+        }
+        if (!isConstantEntry(symbol) && knownRegion[symbol] == region) {
+            return literalFor(knownValues[symbol]);
+        }
+        return symbol;
+    }
+
+    void forward(int i) {
+        int op = quads.ops[i];
+        int arg1 = substitute(quads.arg1s[i]);
+        int arg2 = substitute(quads.arg2s[i]);
+        if (arg1 != quads.arg1s[i] || arg2 != quads.arg2s[i]) {
+            quads.arg1s[i] = arg1;
+            quads.arg2s[i] = arg2;
+            changed = true;
+        }
+
+        if (Quads.isJump(op) && op != Quads.JMP) {
+            foldJump(i);
+            return;
+        }
+        if (op == Quads.ASSIGN) {
+            define(quads.results[i]);
+            if (isKnown(arg1)) {
+                remember(quads.results[i], knownValue(arg1));
+            } else if (arg1 != quads.results[i]) {
+                copyRegion[quads.results[i]] = region;
+                copySources[quads.results[i]] = arg1;
+                copySourceVersions[quads.results[i]] = versions[arg1];
+            }
+            return;
+        }
+        if (!Quads.isArithmetic(op)) {
+            return;
+        }
+
+        int result = quads.results[i];
+        if (isKnown(arg1) && (op == Quads.NEG || isKnown(arg2))) {
+            long folded = fold(op, knownValue(arg1), op == Quads.NEG ? 0 : knownValue(arg2));
+            if (folded != Long.MIN_VALUE) {
+                rewriteAsAssign(i, literalFor((int) folded));
+                define(result);
+                remember(result, (int) folded);
+                return;
+            }
+        }
+
+        // ADD and MUL operands go in key order, so b + a finds a + b with the versions lined up
+        int first = arg1;
+        int second = arg2;
+        if ((op == Quads.ADD || op == Quads.MUL) && arg2 < arg1) {
+            first = arg2;
+            second = arg1;
+        }
+        long key = expressionKey(op, first, second);
+        int slot = findExpression(key);
+        if (slot >= 0 && expressionRegions[slot] == region
+                && versions[first] == expressionVersions[slot * 3]
+                && (second < 0 || versions[second] == expressionVersions[slot * 3 + 1])) {
+            int holder = quads.results[expressionQuads[slot]];
+            if (versions[holder] == expressionVersions[slot * 3 + 2] && holder != result) {
+                rewriteAsAssign(i, holder);
+                define(result);
+                copyRegion[result] = region;
+                copySources[result] = holder;
+                copySourceVersions[result] = versions[holder];
+                return;
+            }
+        }
+        int versionOne = versions[first];
+        int versionTwo = second < 0 ? 0 : versions[second];
+        define(result);
+        if (result != arg1 && result != arg2) {
+            recordExpression(key, i, versionOne, versionTwo, versions[result]);
+        }
+    }
+
+    // A conditional jump on constants is always or never taken
+    void foldJump(int i) {
+        int op = quads.ops[i];
+        int arg1 = quads.arg1s[i];
+        int arg2 = quads.arg2s[i];
+        if (!isKnown(arg1) || (op != Quads.JEVEN && !isKnown(arg2))) {
+            return;
+        }
+        int left = knownValue(arg1);
+        int right = op == Quads.JEVEN ? 0 : knownValue(arg2);
+        boolean taken;
+        switch (op) {
+            case Quads.JEQ:
+                taken = left == right;
+                break;
+            case Quads.JNE:
+                taken = left != right;
+                break;
+            case Quads.JLT:
+                taken = left < right;
+                break;
+            case Quads.JLE:
+                taken = left <= right;
+                break;
+            case Quads.JGT:
+                taken = left > right;
+                break;
+            case Quads.JGE:
+                taken = left >= right;
+                break;
+            default:
+                taken = left % 2 == 0;
+                break;
+        }
+        if (taken) {
+            quads.ops[i] = Quads.JMP;
+            quads.arg1s[i] = -1;
+            quads.arg2s[i] = -1;
+        } else {
+            removed[i] = true;
+        }
+        changed = true;
+    }
+
+    // Result of a constant operation, Long.MIN_VALUE when it must be left to run time
+    static long fold(int op, int left, int right) {
+        switch (op) {
+            case Quads.ADD:
+                return left + right;
+            case Quads.SUB:
+                return left - right;
+            case Quads.MUL:
+                return left * right;
+            case Quads.DIV:
+                return right == 0 ? Long.MIN_VALUE : left / right;
+            default:
+                return -left;
+        }
+    }
+
+    void rewriteAsAssign(int i, int source) {
+        quads.ops[i] = Quads.ASSIGN;
+        quads.arg1s[i] = source;
+        quads.arg2s[i] = -1;
+        changed = true;
+    }
+
+    // A write to symbol: what was known about it, and copies of it, no longer hold
+    void define(int symbol) {
+        versions[symbol]++;
+        knownRegion[symbol] = 0;
+        copyRegion[symbol] = 0;
+    }
+
+    void remember(int symbol, int value) {
+        knownRegion[symbol] = region;
+        knownValues[symbol] = value;
+    }
+
+    // Operands in key order, forward swaps those of ADD and MUL
+    static long expressionKey(int op, int arg1, int arg2) {
+        return ((long) op << 58) | ((long) (arg1 + 1) << 29) | (arg2 + 1);
+    }
+
+    void recordExpression(long key, int quad, int versionOne, int versionTwo, int versionResult) {
+        if (expressionCount == expressionQuads.length) {
+            expressionQuads = Arrays.copyOf(expressionQuads, expressionCount * 2);
+            expressionRegions = Arrays.copyOf(expressionRegions, expressionCount * 2);
+            expressionVersions = Arrays.copyOf(expressionVersions, expressionCount * 6);
+        }
+        int slot = expressionCount++;
+        expressionQuads[slot] = quad;
+        expressionRegions[slot] = region;
+        expressionVersions[slot * 3] = versionOne;
+        expressionVersions[slot * 3 + 1] = versionTwo;
+        expressionVersions[slot * 3 + 2] = versionResult;
+        int mask = expressionTable.length - 1;
+        int position = expressionHash(key) & mask;
+        while (expressionTable[position] != 0 && expressionKeys[position] != key) {
+            position = (position + 1) & mask;
+        }
+        expressionKeys[position] = key;
+        expressionTable[position] = slot + 1;
+        if (expressionCount * 2 > expressionTable.length) {
+            rehashExpressions();
+        }
+    }
+
+    // Slot recorded for the key, or -1
+    int findExpression(long key) {
+        int mask = expressionTable.length - 1;
+        int position = expressionHash(key) & mask;
+        while (expressionTable[position] != 0) {
+            if (expressionKeys[position] == key) {
+                return expressionTable[position] - 1;
+            }
+            position = (position + 1) & mask;
+        }
+        return -1;
+    }
+
+    static int expressionHash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32);
+    }
+
+    void rehashExpressions() {
+        long[] oldKeys = expressionKeys;
+        int[] oldTable = expressionTable;
+        expressionKeys = new long[oldKeys.length * 2];
+        expressionTable = new int[oldTable.length * 2];
+        int mask = expressionTable.length - 1;
+        for (int i = 0; i < oldTable.length; i++) {
+            if (oldTable[i] != 0) {
+                int position = expressionHash(oldKeys[i]) & mask;
+                while (expressionTable[position] != 0) {
+                    position = (position + 1) & mask;
+                }
+                expressionKeys[position] = oldKeys[i];
+                expressionTable[position] = oldTable[i];
+            }
+        }
+    }
+
+    // Backward over each region: a store is dead when its target is not read before being
+    // written again or the region ends (temps) or is written again first (variables).
+    // mark[symbol] == stamp flips the default: a variable is dead, a temp is live.
+    void removeDeadStores() {
+        int[] mark = new int[table.symbolCount];
+        int stamp = 1;
+        for (int i = quads.count - 1; i >= 0; i--) {
+            if (leaders[i + 1] || quads.ops[i] == Quads.CALL) {
+                // region boundary: variables become live again, temps dead
+                stamp++;
+            }
+            if (removed[i]) {
+                continue;
+            }
+            int op = quads.ops[i];
+            if (op == Quads.ASSIGN || Quads.isArithmetic(op)) {
+                int result = quads.results[i];
+                boolean live = isTemp[result] ? mark[result] == stamp : mark[result] != stamp;
+                if (!live || (op == Quads.ASSIGN && quads.arg1s[i] == result)) {
+                    removed[i] = true;
+                    changed = true;
+                    continue;
+                }
+                mark[result] = isTemp[result] ? 0 : stamp;
+            }
+            markRead(mark, quads.arg1s[i], stamp);
+            markRead(mark, quads.arg2s[i], stamp);
+        }
+    }
+
+    void markRead(int[] mark, int symbol, int stamp) {
+        if (symbol >= 0) {
+            mark[symbol] = isTemp[symbol] ? stamp : 0;
+        }
+    }
+
+    // Drops quads control can never reach: after JMP, RETURN or HALT, up to the next jump target
+    // or entry point. Jumps to the very next quad are dropped as well.
+    void removeUnreachable() {
+        boolean[] targeted = new boolean[quads.count + 1];
+        targeted[Math.max(quads.mainEntry, 0)] = true;
+        for (int i = 0; i < quads.procedureEntries.length; i++) {
+            if (quads.procedureEntries[i] >= 0) {
+                targeted[quads.procedureEntries[i]] = true;
+            }
+        }
+        for (int i = 0; i < quads.count; i++) {
+            if (!removed[i] && Quads.isJump(quads.ops[i])) {
+                targeted[quads.results[i]] = true;
+            }
+        }
+        boolean reachable = true;
+        for (int i = 0; i < quads.count; i++) {
+            if (targeted[i]) {
+                reachable = true;
+            }
+            if (!reachable && !removed[i]) {
+                removed[i] = true;
+                changed = true;
+            }
+            if (!removed[i] && Quads.endsFlow(quads.ops[i])) {
+                reachable = false;
+            }
+        }
+        for (int i = 0; i < quads.count; i++) {
+            if (!removed[i] && quads.ops[i] == Quads.JMP && nextKept(i + 1) == nextKept(quads.results[i])) {
+                removed[i] = true;
+                changed = true;
+            }
+        }
+    }
+
+    int nextKept(int index) {
+        while (index < quads.count && removed[index]) {
+            index++;
+        }
+        return index;
+    }
+
+    // Moves the kept quads down and renumbers jump targets and entry points
+    void compact() {
+        int count = quads.count;
+        int[] newIndex = new int[count + 1];
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            newIndex[i] = kept;
+            if (!removed[i]) {
+                quads.ops[kept] = quads.ops[i];
+                quads.arg1s[kept] = quads.arg1s[i];
+                quads.arg2s[kept] = quads.arg2s[i];
+                quads.results[kept] = quads.results[i];
+                kept++;
+            }
+        }
+        newIndex[count] = kept;
+        for (int i = 0; i < kept; i++) {
+            if (Quads.isJump(quads.ops[i])) {
+                quads.results[i] = newIndex[quads.results[i]];
+            }
+        }
+        quads.mainEntry = newIndex[Math.max(quads.mainEntry, 0)];
+        for (int i = 0; i < quads.procedureEntries.length; i++) {
+            if (quads.procedureEntries[i] >= 0) {
+                quads.procedureEntries[i] = newIndex[quads.procedureEntries[i]];
+            }
+        }
+        quads.count = kept;
+    }
+
+    // Prints the quads for a source file before and after optimizing
+    // Usage: Optimizer [file] [maxPasses]
+    public static void main(String[] args) throws IOException {
+        Path sourceFile = Path.of(args.length > 0 ? args[0] : "Program_Text.txt");
+        int maxPasses = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_PASSES;
+        PackedTokens tokens = new Scanner(CharacterReader.fromFile(sourceFile)).getPackedTokens();
+        SymbolTable table = SymbolTable.buildFromTokens(tokens);
+        Quads quads = CodeGenerator.generate(Parser.parse(tokens), table);
+        int before = quads.count;
+        int passes = optimize(quads, maxPasses);
+        System.out.print(quads.dump());
+        System.out.println(before + " quads before, " + quads.count + " after " + passes + " passes");
+    }
+}
@@ -0,0 +1,134 @@
+//OutputBuffer.java
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Fixed-width text output into a reusable byte buffer, flushed to a channel when full.
+// Replaces String.format for the output tables: text is copied byte by byte and padded with spaces.
+class OutputBuffer implements Closeable {
+    static final int BUFFER_SIZE = 1 << 16;
+    // One spare buffer per thread so back to back files do not allocate a new one
+    static final ThreadLocal<ByteBuffer> SPARE_BUFFER = new ThreadLocal<>();
+
+    WritableByteChannel channel;
+    ByteBuffer buffer;
+
+    OutputBuffer(WritableByteChannel channel) {
+        this.channel = channel;
+        ByteBuffer spare = SPARE_BUFFER.get();
+        if (spare != null) {
+            SPARE_BUFFER.set(null);
+            spare.clear();
+            this.buffer = spare;
+        } else {
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+    }
+
+    static OutputBuffer toFile(String filename) throws IOException {
+        return new OutputBuffer(FileChannel.open(Path.of(filename),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    void append(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch >= 0x80) {
+                appendEncoded(text.substring(i));
+                return;
+            }
+            appendByte(ch);
+        }
+    }
+
+    // Same as %-Ns: the text, then spaces up to width characters
+    void appendPadded(String text, int width) throws IOException {
+        append(text);
+        appendRepeated(' ', width - text.length());
+    }
+
+    // A number as %-Nd, digits written straight into the buffer
+    void appendPadded(long value, int width) throws IOException {
+        if (value < 0) {
+            appendPadded(Long.toString(value), width);
+            return;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        long scale = 1;
+        for (int i = 1; i < digits; i++) {
+            scale *= 10;
+        }
+        for (; scale != 0; scale /= 10) {
+            appendByte('0' + (int) (value / scale % 10));
+        }
+        appendRepeated(' ', width - digits);
+    }
+
+    // Writes source text straight from the reader, no lexeme String
+    void appendPadded(CharacterReader source, int start, int end, int width) throws IOException {
+        for (int i = start; i < end; i++) {
+            char ch = source.charAt(i);
+            if (ch >= 0x80) {
+                appendEncoded(String.valueOf(ch));
+            } else {
+                appendByte(ch);
+            }
+        }
+        appendRepeated(' ', width - (end - start));
+    }
+
+    void appendRepeated(char ch, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            appendByte(ch);
+        }
+    }
+
+    void appendByte(int value) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put((byte) value);
+    }
+
+    // Non-ASCII text goes out in the default charset, like FileWriter
+    void appendEncoded(String text) throws IOException {
+        byte[] encoded = text.getBytes(Charset.defaultCharset());
+        for (int i = 0; i < encoded.length; i++) {
+            appendByte(encoded[i]);
+        }
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // The channel is closed even when the last flush fails. The buffer is parked for reuse and
+    // dropped here, so closing again does nothing instead of handing out the same buffer twice.
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                SPARE_BUFFER.set(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
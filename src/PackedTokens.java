@@ -0,0 +1,139 @@
+//PackedTokens.java
+// Compact token stream: one slot per token in parallel primitive arrays,
+// lexemes are sliced from the source only when asked for
+public class PackedTokens {
+    static final TokenType[] TOKEN_TYPES = TokenType.values();
+    static final Classification[] CLASSIFICATIONS = Classification.values();
+
+    CharacterReader source;
+    // IDENT and NUMBER lexemes are interned, other tokens hold -1
+    SymbolInterner interner;
+    byte[] types;
+    int[] starts;
+    int[] lengths;
+    byte[] classifications;
+    int[] symbolIds;
+    int count;
+
+    PackedTokens(CharacterReader source, int startSize) {
+        this(source, new SymbolInterner(), startSize);
+    }
+
+    PackedTokens(CharacterReader source, SymbolInterner interner, int startSize) {
+        this.source = source;
+        this.interner = interner;
+        types = new byte[startSize];
+        starts = new int[startSize];
+        lengths = new int[startSize];
+        classifications = new byte[startSize];
+        symbolIds = new int[startSize];
+        count = 0;
+    }
+
+    void add(TokenType type, int start, int length) {
+        add(type, start, length, -1);
+    }
+
+    // Adds a token, resizing x2
+    void add(TokenType type, int start, int length, int symbolId) {
+        if (count == types.length) {
+            grow(count + 1);
+        }
+        types[count] = (byte) type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        classifications[count] = (byte) Classification.DEFAULT.ordinal();
+        symbolIds[count] = symbolId;
+        count++;
+    }
+
+    // Room for at least minSize tokens, at least doubling
+    void grow(int minSize) {
+        if (minSize > types.length) {
+            int newSize = Math.max(minSize, types.length * 2);
+            byte[] biggerTypes = new byte[newSize];
+            int[] biggerStarts = new int[newSize];
+            int[] biggerLengths = new int[newSize];
+            byte[] biggerClassifications = new byte[newSize];
+            int[] biggerSymbolIds = new int[newSize];
+            System.arraycopy(types, 0, biggerTypes, 0, count);
+            System.arraycopy(starts, 0, biggerStarts, 0, count);
+            System.arraycopy(lengths, 0, biggerLengths, 0, count);
+            System.arraycopy(classifications, 0, biggerClassifications, 0, count);
+            System.arraycopy(symbolIds, 0, biggerSymbolIds, 0, count);
+            types = biggerTypes;
+            starts = biggerStarts;
+            lengths = biggerLengths;
+            classifications = biggerClassifications;
+            symbolIds = biggerSymbolIds;
+        }
+    }
+
+    // Replaces tokens from..from+removed with all of replacement's, in place. The tokens after them
+    // move along the arrays and their offsets by shift. Both streams must share one interner.
+    void splice(int from, int removed, PackedTokens replacement, int shift) {
+        int inserted = replacement.count;
+        int tailStart = from + removed;
+        int tailCount = count - tailStart;
+        int newCount = count - removed + inserted;
+        grow(newCount);
+        if (inserted != removed) {
+            System.arraycopy(types, tailStart, types, from + inserted, tailCount);
+            System.arraycopy(starts, tailStart, starts, from + inserted, tailCount);
+            System.arraycopy(lengths, tailStart, lengths, from + inserted, tailCount);
+            System.arraycopy(classifications, tailStart, classifications, from + inserted, tailCount);
+            System.arraycopy(symbolIds, tailStart, symbolIds, from + inserted, tailCount);
+        }
+        System.arraycopy(replacement.types, 0, types, from, inserted);
+        System.arraycopy(replacement.starts, 0, starts, from, inserted);
+        System.arraycopy(replacement.lengths, 0, lengths, from, inserted);
+        System.arraycopy(replacement.classifications, 0, classifications, from, inserted);
+        System.arraycopy(replacement.symbolIds, 0, symbolIds, from, inserted);
+        if (shift != 0) {
+            for (int i = from + inserted; i < newCount; i++) {
+                starts[i] += shift;
+            }
+        }
+        count = newCount;
+    }
+
+    // Appends tokens from..to of another stream, moving their offsets by shift.
+    // Ids from another interner are interned again here.
+    void append(PackedTokens other, int from, int to, int shift) {
+        for (int i = from; i < to; i++) {
+            int symbolId = other.symbolIds[i];
+            if (symbolId >= 0 && other.interner != interner) {
+                symbolId = interner.intern(other.interner.name(symbolId));
+            }
+            add(other.type(i), other.starts[i] + shift, other.lengths[i], symbolId);
+            classifications[count - 1] = other.classifications[i];
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public TokenType type(int index) {
+        return TOKEN_TYPES[types[index]];
+    }
+
+    // Slices the lexeme out of the source, EOF has no source text
+    public String lexeme(int index) {
+        if (types[index] == TokenType.EOF.ordinal()) {
+            return "EOF";
+        }
+        if (symbolIds[index] >= 0) {
+            return interner.name(symbolIds[index]);
+        }
+        return source.text(starts[index], starts[index] + lengths[index]);
+    }
+
+    public String classification(int index) {
+        Classification assigned = CLASSIFICATIONS[classifications[index]];
+        if (assigned == Classification.DEFAULT) {
+            return type(index).getOutputName();
+        }
+        return assigned.getOutputName();
+    }
+}
@@ -0,0 +1,107 @@
+//ParallelScanner.java
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Scans a large source in chunks on a fork-join pool and stitches the token streams back together.
+// Chunks are cut at whitespace, so no token spans two chunks. Each chunk is scanned assuming it
+// starts outside a comment; if the chunk before it ends inside a comment it is scanned again
+// from STATE_COMMENT while stitching.
+public class ParallelScanner {
+    static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    // Tokens of one chunk without its EOF, and whether the chunk ended inside a comment
+    static class ChunkResult {
+        PackedTokens tokens;
+        int tokenCount;
+        boolean endedInComment;
+    }
+
+    public static PackedTokens scan(CharacterReader source) {
+        return scan(source, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public static PackedTokens scan(CharacterReader source, int chunkSize, ForkJoinPool pool) {
+        int[] boundaries = chunkBoundaries(source, chunkSize);
+        int chunkCount = boundaries.length - 1;
+
+        List<Callable<ChunkResult>> chunkTasks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            int start = boundaries[i];
+            int end = boundaries[i + 1];
+            chunkTasks.add(() -> scanChunk(source, start, end, Scanner.STATE_START));
+        }
+        List<Future<ChunkResult>> results = pool.invokeAll(chunkTasks);
+
+        PackedTokens output = new PackedTokens(source, Scanner.TOKEN_START_SIZE);
+        boolean inComment = false;
+        for (int i = 0; i < chunkCount; i++) {
+            ChunkResult chunk = result(results.get(i));
+            if (inComment) {
+                chunk = scanChunk(source, boundaries[i], boundaries[i + 1], Scanner.STATE_COMMENT);
+            }
+            output.append(chunk.tokens, 0, chunk.tokenCount, 0);
+            inComment = chunk.endedInComment;
+        }
+        output.add(TokenType.EOF, source.length, 0);
+        return output;
+    }
+
+    // Chunk starts: every chunk after the first begins on a whitespace character
+    static int[] chunkBoundaries(CharacterReader source, int chunkSize) {
+        int[] boundaries = new int[2];
+        int count = 0;
+        boundaries[count++] = source.position;
+        int boundary = source.position;
+        while (true) {
+            boundary = boundary + chunkSize;
+            while (boundary < source.length && !isWhitespace(source.charAt(boundary))) {
+                boundary++;
+            }
+            if (boundary >= source.length) {
+                break;
+            }
+            if (count == boundaries.length - 1) {
+                int[] bigger = new int[boundaries.length * 2];
+                System.arraycopy(boundaries, 0, bigger, 0, count);
+                boundaries = bigger;
+            }
+            boundaries[count++] = boundary;
+        }
+        boundaries[count++] = source.length;
+
+        int[] output = new int[count];
+        System.arraycopy(boundaries, 0, output, 0, count);
+        return output;
+    }
+
+    // A character the generated tables start a SKIP run with, looked up like the scanner does
+    static boolean isWhitespace(char ch) {
+        int state = Scanner.TRANSITIONS[Scanner.STATE_START * Scanner.CLASS_COUNT + Scanner.classOf(ch)];
+        return state != Scanner.INVALID && Scanner.ACCEPTS[state] == LexerGenerator.ACCEPT_SKIP;
+    }
+
+    static ChunkResult scanChunk(CharacterReader source, int start, int end, int startState) {
+        Scanner chunkScanner = new Scanner(source.slice(start, end));
+        chunkScanner.resumeState = startState;
+        ChunkResult chunk = new ChunkResult();
+        chunk.tokens = chunkScanner.getPackedTokens();
+        chunk.tokenCount = chunk.tokens.count - 1;
+        chunk.endedInComment = chunkScanner.endedInComment;
+        return chunk;
+    }
+
+    static ChunkResult result(Future<ChunkResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning", interrupted);
+        } catch (ExecutionException failed) {
+            throw new IllegalStateException("Chunk scan failed", failed.getCause());
+        }
+    }
+}
@@ -0,0 +1,329 @@
+//Parser.java
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Recursive-descent parser from the compact token stream to a SyntaxTree.
+// Grammar:
+//   program    = CLASS ident "{" block "}"
+//   block      = { CONST ident "=" number { "," ident "=" number } ";"
+//                | VAR ident { "," ident } ";"
+//                | PROCEDURE ident "(" ")" "{" block "}" } statements
+//   statements = statement { ";" statement }
+//   statement  = [ ident "=" expression | CALL ident "(" ")" | IF condition THEN statement
+//                | WHILE condition DO statement | "{" statements "}" ]
+//   condition  = ODD expression | expression relop expression
+//   expression = [ "+" | "-" ] term { ( "+" | "-" ) term }
+//   term       = factor { ( "*" | "/" ) factor }
+//   factor     = ident | number | "(" expression ")"
+// On an error the parser records it, then skips to the next ';' or '}' (panic mode) and carries on,
+// so one pass reports every broken statement. A missing ';' between two statements is reported
+// and the second statement is still parsed.
+public class Parser {
+    PackedTokens tokens;
+    int position;
+    SyntaxTree tree;
+    // Set after an error until the parser is back in step, so one mistake gives one message
+    boolean panicking;
+
+    Parser(PackedTokens tokens) {
+        this.tokens = tokens;
+        this.position = 0;
+        this.tree = new SyntaxTree(tokens, Math.max(SyntaxTree.START_SIZE, tokens.count / 2));
+        this.panicking = false;
+    }
+
+    public static SyntaxTree parse(PackedTokens tokens) {
+        Parser parser = new Parser(tokens);
+        parser.tree.root = parser.parseProgram();
+        return parser.tree;
+    }
+
+    TokenType peek() {
+        return tokens.type(position);
+    }
+
+    TokenType peekAhead(int distance) {
+        return tokens.type(Math.min(position + distance, tokens.count - 1));
+    }
+
+    // Consumes the token if it has the type, EOF is never consumed
+    boolean accept(TokenType type) {
+        if (peek() == type && type != TokenType.EOF) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    // Consumes the token or records an error naming what was expected
+    boolean expect(TokenType type, String expected) {
+        if (accept(type)) {
+            return true;
+        }
+        error("expected " + expected);
+        return false;
+    }
+
+    void error(String expected) {
+        if (panicking) {
+            return;
+        }
+        panicking = true;
+        String found = peek() == TokenType.EOF ? "end of input" : "'" + tokens.lexeme(position) + "'";
+        tree.errors.add(new SyntaxTree.SyntaxError(position, expected + " but found " + found));
+    }
+
+    // Skips to the next ';', '}' or the end, without consuming it
+    void synchronize() {
+        while (peek() != TokenType.SEMICOLON && peek() != TokenType.RIGHT_BRACE && peek() != TokenType.EOF) {
+            position++;
+        }
+        panicking = false;
+    }
+
+    int parseProgram() {
+        int program = tree.addNode(SyntaxTree.PROGRAM, -1);
+        if (expect(TokenType.CLASS, "CLASS") && peek() == TokenType.IDENT) {
+            tree.tokenIndexes[program] = position++;
+        } else {
+            expect(TokenType.IDENT, "class name");
+        }
+        expect(TokenType.LEFT_BRACE, "'{'");
+        tree.addChild(program, parseBlock());
+        expect(TokenType.RIGHT_BRACE, "'}'");
+        if (peek() != TokenType.EOF) {
+            error("expected end of input");
+        }
+        return program;
+    }
+
+    int parseBlock() {
+        int block = tree.addNode(SyntaxTree.BLOCK, -1);
+        while (true) {
+            if (accept(TokenType.CONST)) {
+                parseConstants(block);
+            } else if (accept(TokenType.VAR)) {
+                parseVariables(block);
+            } else if (accept(TokenType.PROCEDURE)) {
+                tree.addChild(block, parseProcedure());
+            } else {
+                break;
+            }
+        }
+        parseStatements(block);
+        return block;
+    }
+
+    void parseConstants(int block) {
+        do {
+            if (peek() != TokenType.IDENT) {
+                error("expected constant name");
+                break;
+            }
+            int constant = tree.addNode(SyntaxTree.CONST, position++);
+            tree.addChild(block, constant);
+            if (expect(TokenType.ASSIGN_OP, "'='") && peek() == TokenType.NUMBER) {
+                tree.addChild(constant, tree.addNode(SyntaxTree.NUMBER, position++));
+            } else {
+                error("expected number");
+                break;
+            }
+        } while (accept(TokenType.COMMA));
+        endDeclaration();
+    }
+
+    void parseVariables(int block) {
+        do {
+            if (peek() != TokenType.IDENT) {
+                error("expected variable name");
+                break;
+            }
+            tree.addChild(block, tree.addNode(SyntaxTree.VAR, position++));
+        } while (accept(TokenType.COMMA));
+        endDeclaration();
+    }
+
+    void endDeclaration() {
+        if (!panicking && accept(TokenType.SEMICOLON)) {
+            return;
+        }
+        error("expected ';'");
+        synchronize();
+        accept(TokenType.SEMICOLON);
+    }
+
+    int parseProcedure() {
+        if (peek() != TokenType.IDENT) {
+            error("expected procedure name");
+            synchronize();
+            return -1;
+        }
+        int procedure = tree.addNode(SyntaxTree.PROCEDURE, position++);
+        expect(TokenType.LEFT_PAREN, "'('");
+        expect(TokenType.RIGHT_PAREN, "')'");
+        expect(TokenType.LEFT_BRACE, "'{'");
+        tree.addChild(procedure, parseBlock());
+        expect(TokenType.RIGHT_BRACE, "'}'");
+        return procedure;
+    }
+
+    // Statements up to a '}' or the end, which is left for the caller
+    void parseStatements(int parent) {
+        while (true) {
+            tree.addChild(parent, parseStatement());
+            TokenType type = peek();
+            if (type == TokenType.SEMICOLON) {
+                position++;
+                panicking = false;
+            } else if (type == TokenType.RIGHT_BRACE || type == TokenType.EOF) {
+                return;
+            } else if (startsStatement()) {
+                error("expected ';'");
+                panicking = false;
+            } else {
+                error("expected ';' or '}'");
+                synchronize();
+            }
+        }
+    }
+
+    // A token that can only begin a statement, so a ';' before it was left out
+    boolean startsStatement() {
+        switch (peek()) {
+            case CALL:
+            case IF:
+            case WHILE:
+            case LEFT_BRACE:
+                return true;
+            case IDENT:
+                return peekAhead(1) == TokenType.ASSIGN_OP;
+            default:
+                return false;
+        }
+    }
+
+    // One statement, -1 for the empty statement or one that could not be parsed
+    int parseStatement() {
+        switch (peek()) {
+            case IDENT: {
+                int assign = tree.addNode(SyntaxTree.ASSIGN, position++);
+                if (expect(TokenType.ASSIGN_OP, "'='")) {
+                    tree.addChild(assign, parseExpression());
+                }
+                return assign;
+            }
+            case CALL: {
+                position++;
+                if (peek() != TokenType.IDENT) {
+                    error("expected procedure name");
+                    return -1;
+                }
+                int call = tree.addNode(SyntaxTree.CALL, position++);
+                expect(TokenType.LEFT_PAREN, "'('");
+                expect(TokenType.RIGHT_PAREN, "')'");
+                return call;
+            }
+            case IF: {
+                int node = tree.addNode(SyntaxTree.IF, position++);
+                tree.addChild(node, parseCondition());
+                expect(TokenType.THEN, "THEN");
+                tree.addChild(node, parseStatement());
+                return node;
+            }
+            case WHILE: {
+                int node = tree.addNode(SyntaxTree.WHILE, position++);
+                tree.addChild(node, parseCondition());
+                expect(TokenType.DO, "DO");
+                tree.addChild(node, parseStatement());
+                return node;
+            }
+            case LEFT_BRACE: {
+                int compound = tree.addNode(SyntaxTree.COMPOUND, position++);
+                parseStatements(compound);
+                expect(TokenType.RIGHT_BRACE, "'}'");
+                return compound;
+            }
+            default:
+                return -1;
+        }
+    }
+
+    int parseCondition() {
+        if (peek() == TokenType.ODD) {
+            int odd = tree.addNode(SyntaxTree.ODD, position++);
+            tree.addChild(odd, parseExpression());
+            return odd;
+        }
+        int left = parseExpression();
+        if (!isRelation(peek())) {
+            error("expected relational operator");
+            return left;
+        }
+        int relation = tree.addNode(SyntaxTree.RELATION, position++);
+        tree.addChild(relation, left);
+        tree.addChild(relation, parseExpression());
+        return relation;
+    }
+
+    static boolean isRelation(TokenType type) {
+        return type == TokenType.EQUALS_OP || type == TokenType.NOT_EQUAL_OP || type == TokenType.LESS_OP
+            || type == TokenType.LESS_EQUAL_OP || type == TokenType.GREATER_OP || type == TokenType.GREATER_EQUAL_OP;
+    }
+
+    int parseExpression() {
+        int left;
+        if (peek() == TokenType.SUB_OP) {
+            left = tree.addNode(SyntaxTree.NEGATE, position++);
+            tree.addChild(left, parseTerm());
+        } else {
+            accept(TokenType.ADD_OP);
+            left = parseTerm();
+        }
+        while (peek() == TokenType.ADD_OP || peek() == TokenType.SUB_OP) {
+            int binary = tree.addNode(SyntaxTree.BINARY, position++);
+            tree.addChild(binary, left);
+            tree.addChild(binary, parseTerm());
+            left = binary;
+        }
+        return left;
+    }
+
+    int parseTerm() {
+        int left = parseFactor();
+        while (peek() == TokenType.MULT_OP || peek() == TokenType.DIV_OP) {
+            int binary = tree.addNode(SyntaxTree.BINARY, position++);
+            tree.addChild(binary, left);
+            tree.addChild(binary, parseFactor());
+            left = binary;
+        }
+        return left;
+    }
+
+    int parseFactor() {
+        switch (peek()) {
+            case IDENT:
+                return tree.addNode(SyntaxTree.NAME, position++);
+            case NUMBER:
+                return tree.addNode(SyntaxTree.NUMBER, position++);
+            case LEFT_PAREN: {
+                position++;
+                int inner = parseExpression();
+                expect(TokenType.RIGHT_PAREN, "')'");
+                return inner;
+            }
+            default:
+                error("expected name, number or '('");
+                return -1;
+        }
+    }
+
+    // Parses a source file and prints the tree, then any errors
+    public static void main(String[] args) throws IOException {
+        Path sourceFile = Path.of(args.length > 0 ? args[0] : "Program_Text.txt");
+        SyntaxTree tree = parse(new Scanner(CharacterReader.fromFile(sourceFile)).getPackedTokens());
+        System.out.print(tree.dump());
+        for (SyntaxTree.SyntaxError error : tree.errors) {
+            System.out.println(tree.describe(error));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+//ProgramGenerator.java
+import java.util.Random;
+
+// Generates synthetic programs in the scanned language for benchmarks.
+// Programs are valid and always terminate: loops count a fresh variable down from a small
+// literal, procedures only call procedures declared before them, and division is by a literal.
+public class ProgramGenerator {
+    int targetSize;
+    // relative weights for picking an operand, and the chance of a comment per statement
+    int identifierWeight;
+    int numberWeight;
+    double commentChance;
+    Random random;
+
+    StringBuilder output;
+    int constCount;
+    int varCount;
+    int procedureCount;
+    int loopCount;
+
+    public ProgramGenerator(int targetSize, int identifierWeight, int numberWeight, double commentChance, long seed) {
+        this.targetSize = targetSize;
+        this.identifierWeight = identifierWeight;
+        this.numberWeight = numberWeight;
+        this.commentChance = commentChance;
+        this.random = new Random(seed);
+    }
+
+    // Default mix: mostly identifiers, some numbers, a comment every few statements
+    public static String generate(int targetSize, long seed) {
+        return new ProgramGenerator(targetSize, 3, 1, 0.2, seed).generate();
+    }
+
+    public String generate() {
+        output = new StringBuilder(targetSize + 1024);
+        constCount = 16;
+        varCount = 64;
+        procedureCount = 0;
+        loopCount = 0;
+
+        output.append("CLASS Generated{\n");
+        output.append("CONST ");
+        for (int i = 0; i < constCount; i++) {
+            output.append(i == 0 ? "" : ", ").append('K').append(i).append(" = ").append(1 + random.nextInt(100));
+        }
+        output.append(";\n");
+        output.append("VAR ");
+        for (int i = 0; i < varCount; i++) {
+            output.append(i == 0 ? "" : ", ").append('V').append(i);
+        }
+        output.append(";\n");
+
+        while (output.length() < targetSize) {
+            procedure();
+        }
+
+        // main program calls every procedure once
+        output.append("/* Main program. */\n");
+        for (int i = 0; i < procedureCount; i++) {
+            output.append("CALL P").append(i).append("();\n");
+        }
+        output.append("V0 = V0\n}\n");
+        return output.toString();
+    }
+
+    void procedure() {
+        int index = procedureCount++;
+        // body goes to its own buffer first, loop counters it uses are declared before it
+        StringBuilder program = output;
+        output = new StringBuilder();
+        StringBuilder locals = new StringBuilder();
+        int statements = 4 + random.nextInt(12);
+        for (int i = 0; i < statements; i++) {
+            statement(locals, 1);
+        }
+        if (index > 0 && random.nextInt(2) == 0) {
+            output.append("CALL P").append(random.nextInt(index)).append("();\n");
+        }
+        StringBuilder body = output;
+        output = program;
+
+        output.append("PROCEDURE P").append(index).append("(){\n");
+        if (locals.length() > 0) {
+            output.append("VAR ").append(locals).append(";\n");
+        }
+        output.append(body).append("}\n");
+    }
+
+    void statement(StringBuilder locals, int depth) {
+        if (random.nextDouble() < commentChance) {
+            output.append("/* generated comment ").append(random.nextInt(1000)).append(" */\n");
+        }
+        int kind = depth > 2 ? 0 : random.nextInt(6);
+        switch (kind) {
+            case 4:
+                output.append("IF ");
+                condition();
+                output.append(" THEN ");
+                assignment();
+                break;
+            case 5:
+                String counter = "W" + loopCount++;
+                locals.append(locals.length() == 0 ? "" : ", ").append(counter);
+                output.append(counter).append(" = ").append(1 + random.nextInt(5)).append(";\n");
+                output.append("WHILE ").append(counter).append(" > 0 DO {\n");
+                statement(locals, depth + 1);
+                output.append(counter).append(" = ").append(counter).append(" - 1\n}");
+                break;
+            default:
+                assignment();
+                break;
+        }
+        output.append(";\n");
+    }
+
+    void assignment() {
+        output.append('V').append(random.nextInt(varCount)).append(" = ");
+        expression(0);
+    }
+
+    void condition() {
+        if (random.nextInt(4) == 0) {
+            output.append("ODD ");
+            operand();
+            return;
+        }
+        String[] relations = {"==", "!=", "<", "<=", ">"};
+        operand();
+        output.append(' ').append(relations[random.nextInt(relations.length)]).append(' ');
+        operand();
+    }
+
+    void expression(int depth) {
+        operand();
+        int terms = random.nextInt(4);
+        for (int i = 0; i < terms; i++) {
+            int op = random.nextInt(4);
+            if (op == 3) {
+                output.append(" / ").append(2 + random.nextInt(8));
+                continue;
+            }
+            output.append(op == 0 ? " + " : op == 1 ? " - " : " * ");
+            if (depth < 2 && random.nextInt(5) == 0) {
+                output.append('(');
+                expression(depth + 1);
+                output.append(')');
+            } else {
+                operand();
+            }
+        }
+    }
+
+    void operand() {
+        if (random.nextInt(identifierWeight + numberWeight) < numberWeight) {
+            output.append(random.nextInt(1000));
+        } else if (random.nextInt(5) == 0) {
+            output.append('K').append(random.nextInt(constCount));
+        } else {
+            output.append('V').append(random.nextInt(varCount));
+        }
+    }
+}
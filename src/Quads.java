@@ -0,0 +1,138 @@
+//Quads.java
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Three-address code as quadruples (op, arg1, arg2, result) in parallel int arrays.
+// Operands are symbol table indexes, so each one is a DS address (variables, constants, literals,
+// temps) or a CS address (procedures); -1 is an unused field. Jumps hold the target quad index
+// in result.
+public class Quads {
+    static final int START_SIZE = 64;
+    // Operations, operand use after each
+    static final int ASSIGN = 0;       // result = arg1
+    static final int ADD = 1;          // result = arg1 + arg2
+    static final int SUB = 2;          // result = arg1 - arg2
+    static final int MUL = 3;          // result = arg1 * arg2
+    static final int DIV = 4;          // result = arg1 / arg2
+    static final int NEG = 5;          // result = -arg1
+    static final int JMP = 6;          // jump to result
+    static final int JEQ = 7;          // jump to result if arg1 == arg2
+    static final int JNE = 8;          // jump to result if arg1 != arg2
+    static final int JLT = 9;          // jump to result if arg1 < arg2
+    static final int JLE = 10;         // jump to result if arg1 <= arg2
+    static final int JGT = 11;         // jump to result if arg1 > arg2
+    static final int JGE = 12;         // jump to result if arg1 >= arg2
+    static final int JEVEN = 13;       // jump to result if arg1 is even
+    static final int CALL = 14;        // call procedure arg1
+    static final int RETURN = 15;      // return from a procedure
+    static final int HALT = 16;        // end of the main program
+    static final String[] OP_NAMES = {
+        "ASSIGN", "ADD", "SUB", "MUL", "DIV", "NEG", "JMP", "JEQ", "JNE", "JLT", "JLE", "JGT", "JGE",
+        "JEVEN", "CALL", "RETURN", "HALT"
+    };
+
+    SymbolTable symbolTable;
+    int[] ops;
+    int[] arg1s;
+    int[] arg2s;
+    int[] results;
+    int count;
+    // Where the main program starts, and the first quad of each procedure by symbol index (-1 if none)
+    int mainEntry;
+    int[] procedureEntries;
+    // Temps the code uses with their symbol indexes, and names the generator could not resolve
+    int tempCount;
+    int[] tempEntries;
+    List<String> errors;
+
+    Quads(SymbolTable symbolTable, int startSize) {
+        this.symbolTable = symbolTable;
+        ops = new int[startSize];
+        arg1s = new int[startSize];
+        arg2s = new int[startSize];
+        results = new int[startSize];
+        count = 0;
+        mainEntry = -1;
+        procedureEntries = new int[0];
+        tempCount = 0;
+        tempEntries = new int[0];
+        errors = new ArrayList<>();
+    }
+
+    // Adds a quad, resizing x2, and returns its index
+    int add(int op, int arg1, int arg2, int result) {
+        if (count == ops.length) {
+            int newSize = ops.length == 0 ? 1 : ops.length * 2;
+            ops = Arrays.copyOf(ops, newSize);
+            arg1s = Arrays.copyOf(arg1s, newSize);
+            arg2s = Arrays.copyOf(arg2s, newSize);
+            results = Arrays.copyOf(results, newSize);
+        }
+        ops[count] = op;
+        arg1s[count] = arg1;
+        arg2s[count] = arg2;
+        results[count] = result;
+        return count++;
+    }
+
+    void setProcedureEntry(int symbolIndex, int quadIndex) {
+        if (symbolIndex >= procedureEntries.length) {
+            int oldSize = procedureEntries.length;
+            procedureEntries = Arrays.copyOf(procedureEntries, Math.max(symbolIndex + 1, oldSize * 2));
+            Arrays.fill(procedureEntries, oldSize, procedureEntries.length, -1);
+        }
+        procedureEntries[symbolIndex] = quadIndex;
+    }
+
+    // First quad of the procedure, or -1
+    public int procedureEntry(int symbolIndex) {
+        return symbolIndex < procedureEntries.length ? procedureEntries[symbolIndex] : -1;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    static boolean isJump(int op) {
+        return op >= JMP && op <= JEVEN;
+    }
+
+    static boolean isArithmetic(int op) {
+        return op >= ADD && op <= NEG;
+    }
+
+    // Quads after which control never falls through to the next one
+    static boolean endsFlow(int op) {
+        return op == JMP || op == RETURN || op == HALT;
+    }
+
+    // One quad per line: index, operation, then operands as name(segment:address)
+    public String dump() {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i == mainEntry) {
+                output.append("main:\n");
+            }
+            output.append(String.format("%6d  %-7s", i, OP_NAMES[ops[i]]));
+            appendOperand(output, arg1s[i]);
+            appendOperand(output, arg2s[i]);
+            if (isJump(ops[i])) {
+                output.append(" -> ").append(results[i]);
+            } else {
+                appendOperand(output, results[i]);
+            }
+            output.append('\n');
+        }
+        return output.toString();
+    }
+
+    void appendOperand(StringBuilder output, int symbolIndex) {
+        if (symbolIndex < 0) {
+            return;
+        }
+        output.append(' ').append(symbolTable.symbolName(symbolIndex))
+            .append('(').append(symbolTable.memorySegment(symbolIndex))
+            .append(':').append(symbolTable.memoryAddress(symbolIndex)).append(')');
+    }
+}
@@ -1,117 +1,89 @@
 //Scanner.java
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 
 public class Scanner {
     static final int INVALID = -1;
     static final int STATE_START = 0;
-    static final int STATE_IDENTIFIER = 1;
-    static final int STATE_NUMBER = 2;
-    static final int STATE_SLASH = 3;
-    static final int STATE_COMMENT = 4;
-    static final int STATE_COMMENT_STAR = 5;
-    static final int STATE_EQUALS = 6;
-    static final int STATE_LESS_THAN = 7;
-    static final int STATE_GREATER_THAN = 8;
-    static final int STATE_EXCLAMATION = 9;
-    // Final states for dfsa
-    static final int FINAL_STATE_PLUS = 10;
-    static final int FINAL_STATE_MINUS = 11;
-    static final int FINAL_STATE_STAR = 12;
-    static final int FINAL_STATE_LEFT_PAREN = 13;
-    static final int FINAL_STATE_RIGHT_PAREN = 14;
-    static final int FINAL_STATE_LEFT_BRACE = 15;
-    static final int FINAL_STATE_RIGHT_BRACE = 16;
-    static final int FINAL_STATE_COMMA = 17;
-    static final int FINAL_STATE_SEMICOLON = 18;
-    static final int FINAL_STATE_DOT = 19;
-    static final int FINAL_STATE_EQUALS_EQUALS = 20;
-    static final int FINAL_STATE_LESS_EQUAL = 21;
-    static final int FINAL_STATE_GREATER_EQUAL = 22;
-    static final int FINAL_STATE_NOT_EQUAL = 23;
 
     CharacterReader charReader;
-    // Transition table,.] Rows are states, columns are character classes.
-    static int[][] TransitionTable() {
-        return new int[][] {
-            /* Columns: LETTER, DIGIT, WHITESPACE, PLUS, MINUS, STAR, SLASH, EQUALS, EXCLAMATION,LESS_THAN,
-             GREATER_THAN, LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, COMMA, SEMICOLON, DOT, EOF, OTHER*/ 
-            {STATE_IDENTIFIER, STATE_NUMBER, STATE_START, FINAL_STATE_PLUS, FINAL_STATE_MINUS, FINAL_STATE_STAR,STATE_SLASH, STATE_EQUALS, STATE_EXCLAMATION, 
-                STATE_LESS_THAN, STATE_GREATER_THAN, FINAL_STATE_LEFT_PAREN,FINAL_STATE_RIGHT_PAREN, FINAL_STATE_LEFT_BRACE, FINAL_STATE_RIGHT_BRACE, FINAL_STATE_COMMA,
-                FINAL_STATE_SEMICOLON, FINAL_STATE_DOT, INVALID, STATE_START}, // STATE_START
-            {STATE_IDENTIFIER, STATE_IDENTIFIER, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID, INVALID, INVALID}, // STATE_IDENTIFIER
-            {INVALID, STATE_NUMBER, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID, INVALID}, // STATE_NUMBER
-            {INVALID, INVALID, INVALID, INVALID, INVALID, STATE_COMMENT, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID, INVALID}, // STATE_SLASH
-            {STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT_STAR,
-                STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT,
-                STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT,
-                STATE_COMMENT, STATE_COMMENT}, // STATE_COMMENT
-            {STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT_STAR,
-                STATE_START, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT,
-                STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT, STATE_COMMENT,
-                STATE_COMMENT, STATE_COMMENT}, // STATE_COMMENT_STAR
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, FINAL_STATE_EQUALS_EQUALS, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID, INVALID, INVALID}, // STATE_EQUALS
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, FINAL_STATE_LESS_EQUAL, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID, INVALID, INVALID}, // STATE_LESS_THAN
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,      INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID, INVALID, INVALID}, // STATE_GREATER_THAN
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, FINAL_STATE_NOT_EQUAL, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID, INVALID, INVALID}, // STATE_EXCLAMATION
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID}, // STATE_ACCEPT_PLUS
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID}, // STATE_ACCEPT_MINUS
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID}, // STATE_ACCEPT_STAR
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID}, // STATE_ACCEPT_LEFT_PAREN
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID}, // STATE_ACCEPT_RIGHT_PAREN
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID}, // STATE_ACCEPT_LEFT_BRACE
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID}, // STATE_ACCEPT_RIGHT_BRACE
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID}, // STATE_ACCEPT_COMMA
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID}, // STATE_ACCEPT_SEMICOLON
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID}, // STATE_ACCEPT_DOT
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID}, // STATE_ACCEPT_EQUALS_EQUALS
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID}, // STATE_ACCEPT_LESS_EQUAL
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID}, // STATE_ACCEPT_GREATER_EQUAL
-            {INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID,
-                INVALID, INVALID, INVALID, INVALID} // STATE_ACCEPT_NOT_EQUAL
+    // Identifier and number lexemes, shared by every token this scanner produces
+    SymbolInterner interner = new SymbolInterner();
+    // Source range of the last scanned token, end is exclusive
+    int tokenStart;
+    int tokenEnd;
+    // State the next scanToken call starts in, STATE_COMMENT when a chunk begins inside a comment
+    int resumeState = STATE_START;
+    // Set when the input ended inside a /* */ comment
+    boolean endedInComment;
+    // DFA state visits for CompilerMetrics, only kept when metrics are on
+    long[] stateVisits = CompilerMetrics.ENABLED ? new long[TRANSITIONS.length / CLASS_COUNT] : null;
+    // Token spec the DFA is generated from, see LexerGenerator. Keywords are matched as IDENT
+    // and then looked up in the keyword table.
+    static String[][] TokenSpec() {
+        return new String[][] {
+            {"IDENT", "[A-Za-z][A-Za-z0-9]*"},
+            {"NUMBER", "[0-9]+"},
+            {"ADD_OP", "\\+"},
+            {"SUB_OP", "-"},
+            {"MULT_OP", "\\*"},
+            {"DIV_OP", "/"},
+            {"LEFT_PAREN", "\\("},
+            {"RIGHT_PAREN", "\\)"},
+            {"LEFT_BRACE", "{"},
+            {"RIGHT_BRACE", "}"},
+            {"COMMA", ","},
+            {"SEMICOLON", ";"},
+            {"DOT", "\\."},
+            {"ASSIGN_OP", "="},
+            {"EQUALS_OP", "=="},
+            {"LESS_OP", "<"},
+            {"LESS_EQUAL_OP", "<="},
+            {"GREATER_OP", ">"},
+            {"GREATER_EQUAL_OP", ">="},
+            {"NOT_EQUAL_OP", "!="},
+            {"SKIP", "[ \\t\\r\\n]+"},
+            {"SKIP", "/\\*([^*]|\\*+[^*/])*\\*+/"},
+            {"OPEN_COMMENT", "/\\*([^*]|\\*+[^*/])*\\**"}
         };
     }
-    // Maps final states to token types
-    static TokenType[] FinalSates() {
-        TokenType[] table = new TokenType[FINAL_STATE_NOT_EQUAL + 1];
-        table[FINAL_STATE_PLUS] = TokenType.ADD_OP;
-        table[FINAL_STATE_MINUS] = TokenType.SUB_OP;
-        table[FINAL_STATE_STAR] = TokenType.MULT_OP;
-        table[FINAL_STATE_LEFT_PAREN] = TokenType.LEFT_PAREN;
-        table[FINAL_STATE_RIGHT_PAREN] = TokenType.RIGHT_PAREN;
-        table[FINAL_STATE_LEFT_BRACE] = TokenType.LEFT_BRACE;
-        table[FINAL_STATE_RIGHT_BRACE] = TokenType.RIGHT_BRACE;
-        table[FINAL_STATE_COMMA] = TokenType.COMMA;
-        table[FINAL_STATE_SEMICOLON] = TokenType.SEMICOLON;
-        table[FINAL_STATE_DOT] = TokenType.DOT;
-        table[FINAL_STATE_EQUALS_EQUALS] = TokenType.EQUALS_OP;
-        table[FINAL_STATE_LESS_EQUAL] = TokenType.LESS_EQUAL_OP;
-        table[FINAL_STATE_GREATER_EQUAL] = TokenType.GREATER_EQUAL_OP;
-        table[FINAL_STATE_NOT_EQUAL] = TokenType.NOT_EQUAL_OP;
-        return table;
+
+    // True when every character up to ' ' either matches nothing or starts a SKIP run of itself
+    static boolean lowCharactersSkip() {
+        for (char ch = 0; ch <= ' '; ch++) {
+            int state = LEXER_TABLES.stateAfter(String.valueOf(ch));
+            if (state == INVALID) {
+                continue;
+            }
+            if (ACCEPTS[state] != LexerGenerator.ACCEPT_SKIP) {
+                return false;
+            }
+            for (int charClass = 0; charClass < CLASS_COUNT; charClass++) {
+                int next = TRANSITIONS[state * CLASS_COUNT + charClass];
+                if (next != INVALID && next != state) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
+
+    // True when STATE_COMMENT accepts and loops on every class except the one '*' is in
+    static boolean commentBodySkip() {
+        if (STATE_COMMENT == INVALID || ACCEPTS[STATE_COMMENT] == LexerGenerator.NO_ACCEPT) {
+            return false;
+        }
+        int starClass = classOf('*');
+        for (int charClass = 0; charClass < CLASS_COUNT; charClass++) {
+            if (charClass != starClass && TRANSITIONS[STATE_COMMENT * CLASS_COUNT + charClass] != STATE_COMMENT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // Keyword token type
     static String[] KeywordTable() {
         return new String[] {
@@ -143,26 +115,35 @@ public class Scanner {
         };
     }
 
-    static int[][] TRANSITION_TABLE = TransitionTable();
-    static TokenType[] FinalState = FinalSates();
+    static LexerGenerator.LexerTables LEXER_TABLES = LexerGenerator.generate(TokenSpec());
+    static byte[] TRANSITIONS = LEXER_TABLES.transitions;
+    static int[] ACCEPTS = LEXER_TABLES.accepts;
+    static byte[] CHAR_CLASSES = LEXER_TABLES.charClasses;
+    static int CLASS_COUNT = LEXER_TABLES.classCount;
+    // Inside a comment, where a chunk that starts in the middle of one resumes
+    static int STATE_COMMENT = LEXER_TABLES.stateAfter("/*");
+    static final TokenType[] TOKEN_TYPES = TokenType.values();
+    // Fast paths, only taken when the generated tables allow them: characters up to ' ' never start
+    // a token, and the comment body state stays put on everything but '*'
+    static boolean SKIP_LOW_CHARACTERS = lowCharactersSkip();
+    static boolean SKIP_COMMENT_BODY = commentBodySkip();
     static String[] KEYWORDS = KeywordTable();
     static TokenType[] KEYWORD_TOKEN = TokenTable();
+    static final int KEYWORD_SLOT_COUNT = 32;
+    static int KEYWORD_MIN_LENGTH = KeywordLength(true);
+    static int KEYWORD_MAX_LENGTH = KeywordLength(false);
+    static int KEYWORD_MULTIPLIER = KeywordMultiplier();
+    static int[] KEYWORD_SLOTS = KeywordSlots();
+    static final int TOKEN_START_SIZE = 64;
 
-    static TokenType TypeFinalState(int state) {
-        if (state < 0 || state >= FinalState.length) {
-            return null;
-        }
-        return FinalState[state];
-    }
      public Token[] getTokens() {
-        Token[] tokenBuffer = new Token[0];
+        Token[] tokenBuffer = new Token[TOKEN_START_SIZE];
         int count = 0;
 
         while (true) {
             // Expand buffer if needed x2
             if (count == tokenBuffer.length) {
-                int newSize = tokenBuffer.length == 0 ? 1 : tokenBuffer.length * 2;
-                Token[] expandedTokenBuffer = new Token[newSize];
+                Token[] expandedTokenBuffer = new Token[tokenBuffer.length * 2];
                 for (int i = 0; i < tokenBuffer.length; i++) {
                     expandedTokenBuffer[i] = tokenBuffer[i];
                 }
@@ -183,178 +164,249 @@ public class Scanner {
         return output;
     }
 
-    static TokenType keywordTokenType(String text) {
-        for (int i = 0; i < KEYWORDS.length; i++) {
-            if (KEYWORDS[i].equalsIgnoreCase(text)) {
-                return KEYWORD_TOKEN[i];
+    // Pushes each token to the sink as soon as it is scanned, without keeping the token array
+    public int streamTokens(TokenSink sink) throws IOException {
+        int count = 0;
+        while (true) {
+            Token next = nextToken();
+            sink.acceptToken(next);
+            count++;
+            if (next.type == TokenType.EOF) {
+                return count;
             }
         }
-        return null;
     }
 
-    
-    // Returns the next token from source code,Uses transition table and final states.
-    public Token nextToken() {
-        int state = STATE_START;
-        StringBuilder tokenText = new StringBuilder();
-
+    // Scans every token into the compact form, no Token or String per token
+    public PackedTokens getPackedTokens() {
+        PackedTokens tokens = new PackedTokens(charReader, interner, TOKEN_START_SIZE);
         while (true) {
-            boolean atEnd = charReader.eof();
-            char currentChar = 0;
-            CharacterClass charClass;
-
-            if (atEnd) {
-                charClass = CharacterClass.EOF;
-            } else {
-                currentChar = charReader.readNextCharacter();
-                charClass = CharacterClass.classifyCharacter(currentChar);
+            TokenType type = scanToken();
+            tokens.add(type, tokenStart, tokenEnd - tokenStart, symbolId(type));
+            if (type == TokenType.EOF) {
+                return tokens;
             }
-            int nextState = TRANSITION_TABLE[state][charClass.ordinal()];
-
-            switch (state) {
-                case STATE_START:
-                    if (charClass == CharacterClass.WHITESPACE || charClass == CharacterClass.OTHER) {
-                        break;
-                    }
-
-                    if (charClass == CharacterClass.EOF) {
-                        return new Token(TokenType.EOF, "EOF");
-                    }
-
-                    tokenText.append(currentChar);
-
-                    TokenType singleCharTokenType = TypeFinalState(nextState);
-                    if (singleCharTokenType != null) {
-                        return new Token(singleCharTokenType, tokenText.toString());
-                    }
-                    break;
-
-                case STATE_IDENTIFIER:
-                    if (nextState == INVALID) {
-                        if (charClass != CharacterClass.EOF) {
-                            charReader.moveBackOneChar();
-                        }
-
-                        String text = tokenText.toString();
-                        TokenType keywordType = keywordTokenType(text);
-                        if (keywordType != null) {
-                            return new Token(keywordType, text);
-                        }
-                        return new Token(TokenType.IDENT, text);
-                    }
+        }
+    }
 
-                    tokenText.append(currentChar);
-                    break;
+    static TokenType keywordTokenType(String text) {
+        return keywordTokenType(new CharacterReader(text), 0, text.length());
+    }
 
-                case STATE_NUMBER:
-                    if (nextState == INVALID) {
-                        if (charClass != CharacterClass.EOF) {
-                            charReader.moveBackOneChar();
-                        }
-                        return new Token(TokenType.NUMBER, tokenText.toString());
-                    }
+    // Looks up a keyword over the source range in place: one perfect-hash probe on
+    // (length, first char, last char) then a single case-insensitive compare
+    static TokenType keywordTokenType(CharacterReader reader, int start, int end) {
+        int length = end - start;
+        if (length < KEYWORD_MIN_LENGTH || length > KEYWORD_MAX_LENGTH) {
+            return null;
+        }
+        int keywordIndex = KEYWORD_SLOTS[keywordSlot(reader.charAt(start), reader.charAt(end - 1), length, KEYWORD_MULTIPLIER)];
+        if (keywordIndex < 0) {
+            return null;
+        }
+        String keyword = KEYWORDS[keywordIndex];
+        if (keyword.length() != length) {
+            return null;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toUpperCase(reader.charAt(start + i)) != keyword.charAt(i)) {
+                return null;
+            }
+        }
+        return KEYWORD_TOKEN[keywordIndex];
+    }
 
-                    tokenText.append(currentChar);
-                    break;
+    // Case-insensitive for letters: clearing bit 0x20 maps a-z onto A-Z
+    static int keywordSlot(char first, char last, int length, int multiplier) {
+        return ((first & 0xDF) * multiplier + (last & 0xDF) + length) & (KEYWORD_SLOT_COUNT - 1);
+    }
 
-                case STATE_SLASH:
-                    if (nextState == STATE_COMMENT) {
-                        tokenText.setLength(0);
-                        break;
-                    }
-                    if (nextState == INVALID) {
-                        if (charClass != CharacterClass.EOF) {
-                            charReader.moveBackOneChar();
-                        }
-                        return new Token(TokenType.DIV_OP, tokenText.toString());
-                    }
-                    break;
+    static int KeywordLength(boolean shortest) {
+        int length = KEYWORDS[0].length();
+        for (int i = 1; i < KEYWORDS.length; i++) {
+            length = shortest ? Math.min(length, KEYWORDS[i].length()) : Math.max(length, KEYWORDS[i].length());
+        }
+        return length;
+    }
 
-                case STATE_COMMENT:
-                case STATE_COMMENT_STAR:
-                    break;
+    // Finds a multiplier that puts every keyword in its own slot, slots hold the keyword index or -1
+    static int KeywordMultiplier() {
+        for (int multiplier = 1; ; multiplier++) {
+            boolean[] used = new boolean[KEYWORD_SLOT_COUNT];
+            boolean collision = false;
+            for (int i = 0; i < KEYWORDS.length && !collision; i++) {
+                String keyword = KEYWORDS[i];
+                int slot = keywordSlot(keyword.charAt(0), keyword.charAt(keyword.length() - 1), keyword.length(), multiplier);
+                collision = used[slot];
+                used[slot] = true;
+            }
+            if (!collision) {
+                return multiplier;
+            }
+        }
+    }
 
-                case STATE_EQUALS:
-                    TokenType finalizedType = TypeFinalState(nextState);
-                    if (finalizedType != null) {
-                        tokenText.append(currentChar);
-                        return new Token(finalizedType, tokenText.toString());
-                    }
+    static int[] KeywordSlots() {
+        int[] slots = new int[KEYWORD_SLOT_COUNT];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = -1;
+        }
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            String keyword = KEYWORDS[i];
+            slots[keywordSlot(keyword.charAt(0), keyword.charAt(keyword.length() - 1), keyword.length(), KEYWORD_MULTIPLIER)] = i;
+        }
+        return slots;
+    }
 
-                    if (nextState == INVALID) {
-                        if (charClass != CharacterClass.EOF) {
-                            charReader.moveBackOneChar();
-                        }
-                        return new Token(TokenType.ASSIGN_OP, tokenText.toString());
-                    }
-                    break;
+    // Returns the next token from source code
+    public Token nextToken() {
+        TokenType type = scanToken();
+        if (type == TokenType.EOF) {
+            return new Token(TokenType.EOF, "EOF");
+        }
+        int symbolId = symbolId(type);
+        if (symbolId >= 0) {
+            return new Token(type, interner.name(symbolId));
+        }
+        return new Token(type, charReader.text(tokenStart, tokenEnd));
+    }
 
-                case STATE_LESS_THAN:
-                    TokenType lessFinalizedType = TypeFinalState(nextState);
-                    if (lessFinalizedType != null) {
-                        tokenText.append(currentChar);
-                        return new Token(lessFinalizedType, tokenText.toString());
-                    }
+    // Interned id of the token just scanned, -1 unless it is an identifier or number
+    int symbolId(TokenType type) {
+        if (type != TokenType.IDENT && type != TokenType.NUMBER) {
+            return -1;
+        }
+        return interner.intern(charReader, tokenStart, tokenEnd);
+    }
 
-                    if (nextState == INVALID) {
-                        if (charClass != CharacterClass.EOF) {
-                            charReader.moveBackOneChar();
-                        }
-                        return new Token(TokenType.LESS_OP, tokenText.toString());
-                    }
-                    break;
+    // Scans the next token with the generated DFA, taking the longest match.
+    // Only the type is returned, the text is at tokenStart..tokenEnd in the source.
+    // Whitespace and comments are matched and dropped; a character no rule matches is skipped.
+    TokenType scanToken() {
+        CharacterReader reader = charReader;
+        ByteBuffer bytes = reader.sourceBytes;
+        String text = reader.sourceText;
+        int limit = reader.length;
+        int startState = resumeState;
+        resumeState = STATE_START;
 
-                case STATE_GREATER_THAN:
-                    TokenType greaterFinalizedType = TypeFinalState(nextState);
-                    if (greaterFinalizedType != null) {
-                        tokenText.append(currentChar);
-                        return new Token(greaterFinalizedType, tokenText.toString());
-                    }
+        while (true) {
+            int position = reader.position;
+            if (startState == STATE_START && SKIP_LOW_CHARACTERS) {
+                position = bytes != null ? ByteScan.skipSpaces(bytes, position, limit) : ByteScan.skipSpaces(text, position, limit);
+                reader.position = position;
+            }
+            tokenStart = position;
+            if (position >= limit && startState == STATE_START) {
+                tokenEnd = position;
+                CompilerMetrics.addStateVisits(stateVisits);
+                return TokenType.EOF;
+            }
 
-                    if (nextState == INVALID) {
-                        if (charClass != CharacterClass.EOF) {
-                            charReader.moveBackOneChar();
-                        }
-                        return new Token(TokenType.GREATER_OP, tokenText.toString());
+            int state = startState;
+            startState = STATE_START;
+            int accepted = state == STATE_START ? LexerGenerator.NO_ACCEPT : ACCEPTS[state];
+            int acceptedEnd = position;
+            while (position < limit) {
+                if (state == STATE_COMMENT && SKIP_COMMENT_BODY) {
+                    // every character up to the next '*' stays in the comment and is accepted
+                    int commentFrom = position;
+                    position = bytes != null ? ByteScan.indexOf(bytes, position, limit, (byte) '*') : ByteScan.indexOf(text, position, limit, '*');
+                    acceptedEnd = position;
+                    if (CompilerMetrics.ENABLED) {
+                        stateVisits[STATE_COMMENT] += position - commentFrom;
                     }
-                    break;
-
-                case STATE_EXCLAMATION:
-                    TokenType exclamationFinalizedType = TypeFinalState(nextState);
-                    if (exclamationFinalizedType != null) {
-                        tokenText.append(currentChar);
-                        return new Token(exclamationFinalizedType, tokenText.toString());
+                    if (position >= limit) {
+                        break;
                     }
+                }
+                int charClass = bytes != null ? CHAR_CLASSES[bytes.get(position) & 0xFF] : classOf(text.charAt(position));
+                int nextState = TRANSITIONS[state * CLASS_COUNT + charClass];
+                if (nextState == INVALID) {
                     break;
+                }
+                state = nextState;
+                position++;
+                if (CompilerMetrics.ENABLED) {
+                    stateVisits[state]++;
+                }
+                if (ACCEPTS[state] != LexerGenerator.NO_ACCEPT) {
+                    accepted = ACCEPTS[state];
+                    acceptedEnd = position;
+                }
+            }
 
-                default:
-                    break;
+            if (accepted == LexerGenerator.NO_ACCEPT) {
+                reader.position = tokenStart + 1;
+                continue;
+            }
+            reader.position = acceptedEnd;
+            if (accepted == LexerGenerator.ACCEPT_SKIP) {
+                continue;
+            }
+            if (accepted == LexerGenerator.ACCEPT_OPEN_COMMENT) {
+                // an unclosed comment runs to the end of the input
+                endedInComment = true;
+                continue;
             }
 
-            state = nextState;
-            if (state == STATE_START) {
-                tokenText.setLength(0);
+            tokenEnd = acceptedEnd;
+            TokenType type = TOKEN_TYPES[accepted];
+            if (type == TokenType.IDENT) {
+                TokenType keywordType = keywordTokenType(reader, tokenStart, tokenEnd);
+                if (keywordType != null) {
+                    return keywordType;
+                }
             }
+            return type;
         }
     }
 
+    // Character class column of a character, anything above Latin-1 acts like 0xFF
+    static int classOf(char ch) {
+        return CHAR_CLASSES[ch < CHAR_CLASSES.length ? ch : CHAR_CLASSES.length - 1];
+    }
+
    
     public Scanner(String sourceCode) 
     {
         this.charReader = new CharacterReader(sourceCode);
         }
 
+    Scanner(CharacterReader charReader)
+    {
+        this.charReader = charReader;
+        }
+
+    // Scans one source file and writes its token and symbol table files, returns the token count
+    static int compileFile(Path sourceFile, String tokensFile, String symbolTableFile) throws IOException {
+        CompilerMetrics.Span read = CompilerMetrics.begin(CompilerMetrics.READ);
+        CharacterReader reader = CharacterReader.fromFile(sourceFile);
+        CompilerMetrics.end(read, reader.length, 0);
+        Scanner tokenScanner = new Scanner(reader);
+        SymbolTable fileWriteSymtab = new SymbolTable();
+        int tokenCount;
+        // Single pass: each token is classified by the symbol table, then written
+        CompilerMetrics.Span stream = CompilerMetrics.begin(CompilerMetrics.STREAM_TOKENS);
+        try (TokenWriter tokenFileWriter = new TokenWriter(tokensFile)) {
+            tokenCount = tokenScanner.streamTokens(token -> {
+                fileWriteSymtab.acceptToken(token);
+                tokenFileWriter.acceptToken(token);
+            });
+        }
+        fileWriteSymtab.finishTokens();
+        CompilerMetrics.end(stream, reader.length, tokenCount);
+        CompilerMetrics.Span write = CompilerMetrics.begin(CompilerMetrics.WRITE_SYMBOL_TABLE);
+        SymbolTableWriter.writeToFile(fileWriteSymtab, symbolTableFile);
+        CompilerMetrics.end(write, 0, 0);
+        return tokenCount;
+    }
+
     public static void main(String[] args)
      {
         try 
         {
-            String sourceCode = Files.readString(Path.of("Program_Text.txt"));
-            Scanner tokenScanner = new Scanner(sourceCode);
-            Token[] AllTokens = tokenScanner.getTokens();
-            SymbolTable fileWriteSymtab = SymbolTable.buildFromTokens(AllTokens);
-            // Write outputs to files
-            TokenWriter.writeToFile(AllTokens, "tokens.txt");
-            SymbolTableWriter.writeToFile(fileWriteSymtab, "symbol_table.txt");
+            compileFile(Path.of("Program_Text.txt"), "tokens.txt", "symbol_table.txt");
         } catch (IOException ioException) 
         {
             throw new UncheckedIOException(ioException);
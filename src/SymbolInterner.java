@@ -0,0 +1,123 @@
+//SymbolInterner.java
+// Canonical strings for identifier and number lexemes, each with a small integer id.
+// The source range is hashed and compared in place, so a lexeme seen before gets its
+// id back without allocating; only the first occurrence copies its text out.
+class SymbolInterner {
+    static final int START_SIZE = 64;
+
+    String[] names;
+    int[] hashes;
+    // Open-addressing slots holding id + 1, 0 is empty
+    int[] slots;
+    int count;
+
+    SymbolInterner() {
+        names = new String[START_SIZE];
+        hashes = new int[START_SIZE];
+        slots = new int[START_SIZE * 2];
+        count = 0;
+    }
+
+    // Id of the text between start and end, added on first sight
+    int intern(CharacterReader reader, int start, int end) {
+        // same hash as String.hashCode so both intern methods agree
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + reader.charAt(i);
+        }
+        int mask = slots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && sameText(names[id], reader, start, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return add(reader.text(start, end), hash, slot);
+    }
+
+    int intern(String name) {
+        int id = find(name);
+        if (id >= 0) {
+            return id;
+        }
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return add(name, hash, slot);
+    }
+
+    // Id of a name already interned, or -1. Every slot looked at counts as a probe, the empty
+    // one that ends a miss included, so longer collision chains show up in the metrics.
+    int find(String name) {
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        CompilerMetrics.count(CompilerMetrics.SYMBOL_HASH_PROBES);
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+            CompilerMetrics.count(CompilerMetrics.SYMBOL_HASH_PROBES);
+        }
+        return -1;
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    int size() {
+        return count;
+    }
+
+    static boolean sameText(String name, CharacterReader reader, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != reader.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Stores a new name in the empty slot found for it, resizing x2
+    int add(String name, int hash, int slot) {
+        if (count == names.length) {
+            String[] biggerNames = new String[names.length * 2];
+            int[] biggerHashes = new int[names.length * 2];
+            System.arraycopy(names, 0, biggerNames, 0, count);
+            System.arraycopy(hashes, 0, biggerHashes, 0, count);
+            names = biggerNames;
+            hashes = biggerHashes;
+        }
+        int id = count++;
+        names[id] = name;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        if (count * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return id;
+    }
+
+    void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < count; id++) {
+            int slot = (hashes[id] ^ (hashes[id] >>> 16)) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 
 //SymbolTable.java
-public class SymbolTable {
+import java.util.Arrays;
+
+public class SymbolTable implements TokenSink {
     static int START_SIZE = 32;
     // States for state table
     static final int STATE_DEFAULT = 0;
@@ -26,13 +28,55 @@ public class SymbolTable {
     static final int COLUMN_EOF = 10;
     static final int COLUMN_OTHER = 11;
 
+    // Bump whenever the entries built from the same tokens change in a way the state and action
+    // tables do not show: address assignment, the temps finishTokens adds, value text, order.
+    // CompileCache keys its entries on it, so a stale cached symbol table is never served.
+    static final int LAYOUT_VERSION = 1;
+
     //build state and action tables 
     static int[][] stateTable = createStateTable();
     static Actions[][] actionTable = createActionTable();
-    SymbolTableEntry[] symbolEntries;
+    static final Classification[] CLASSIFICATIONS = Classification.values();
+    // Segment codes index SEGMENTS
+    static final String[] SEGMENTS = {"DS", "CS"};
+    static final byte SEGMENT_DS = 0;
+    static final byte SEGMENT_CS = 1;
+    // Markers in values for value text that is not a number: "?", "" and anything kept in valueTexts
+    static final long VALUE_UNKNOWN = Long.MIN_VALUE;
+    static final long VALUE_NONE = Long.MIN_VALUE + 1;
+    static final long VALUE_TEXT = Long.MIN_VALUE + 2;
+
+    // Entries are stored by column, one slot per entry in each array
+    int[] nameIds;
+    byte[] classifications;
+    long[] values;
+    int[] addresses;
+    byte[] segments;
+    // Value text that does not fit a plain long, only allocated once such a value shows up
+    String[] valueTexts;
     int symbolCount;
+    // Symbol names and literal values, entries hold their name id
+    SymbolInterner names;
+    // First entry index + 1 by name id, and numeric literal entry index + 1 by the id of its value.
+    // 0 is no entry; the first entry with a key keeps it like the old linear scans.
+    int[] entryByNameId;
+    int[] literalByValueId;
+    // Entry index + 1 by interned id of the name, filled on lookup for tokens of idInterner.
+    // Cached entries from cachedEntryLimit on may be stale after a rewind and are looked up again.
+    SymbolInterner idInterner;
+    int[] entryById;
+    int cachedEntryLimit;
     int dataAddress;
     int codeAddress;
+    // State machine position while tokens are streamed in
+    int buildState;
+    String pendingConstName;
+    int pendingConstId;
+    int currentOperatorCount;
+    int maxOperatorCount;
+    // The Temp entries finishTokens reserved, so a code generator can find them without their names
+    int firstTempEntry;
+    int tempEntryCount;
 // //Actions for action table
     enum Actions {
         NONE,
@@ -45,22 +89,6 @@ public class SymbolTable {
         IDENTIFIER_USE
     }
 
-    static class SymbolTableEntry {
-        String symbolName;
-        String classification;
-        String valueText;
-        int memoryAddress;
-        String memorySegment;
-
-        SymbolTableEntry(String symbolName, String classification, String valueText, int memoryAddress, String memorySegment) {
-            this.symbolName = symbolName;
-            this.classification = classification;
-            this.valueText = valueText;
-            this.memoryAddress = memoryAddress;
-            this.memorySegment = memorySegment;
-        }
-    }
-
     static int[][] createStateTable() {
         return new int[][] {
             // CLASS, CONST, VAR, PROCEDURE, IDENTIFIER, NUMBER, ASSIGN, COMMA, SEMICOLON, RIGHT_BRACE, EOF, OTHER
@@ -94,23 +122,207 @@ public class SymbolTable {
     }
 
     public SymbolTable() {
-        symbolEntries = new SymbolTableEntry[START_SIZE];
+        nameIds = new int[START_SIZE];
+        classifications = new byte[START_SIZE];
+        values = new long[START_SIZE];
+        addresses = new int[START_SIZE];
+        segments = new byte[START_SIZE];
+        valueTexts = null;
         symbolCount = 0;
+        names = new SymbolInterner();
+        entryByNameId = new int[START_SIZE];
+        literalByValueId = new int[START_SIZE];
+        idInterner = null;
+        entryById = new int[0];
+        cachedEntryLimit = Integer.MAX_VALUE;
         dataAddress = 0;
         codeAddress = 0;
+        buildState = STATE_DEFAULT;
+        pendingConstName = null;
+        pendingConstId = -1;
+        currentOperatorCount = 0;
+        maxOperatorCount = 0;
+        firstTempEntry = 0;
+        tempEntryCount = 0;
     }
-    // Adds a symbol to the table, resizing x2
+
     void addSymbol(String name, String classText, String valueText, int address, String segment) {
-        if (symbolCount == symbolEntries.length) {
-            int newSize = symbolEntries.length == 0 ? 1 : symbolEntries.length * 2;
-            SymbolTableEntry[] bigger = new SymbolTableEntry[newSize];
-            for (int i = 0; i < symbolEntries.length; i++) {
-                bigger[i] = symbolEntries[i];
+        byte segmentCode = segmentCode(segment);
+        if (segmentCode < 0) {
+            throw new IllegalArgumentException("Unknown memory segment " + segment);
+        }
+        addSymbol(name, Classification.fromOutputName(classText), valueText, address, segmentCode);
+    }
+
+    // Adds a symbol to the table, resizing x2
+    void addSymbol(String name, Classification classification, String valueText, int address, byte segment) {
+        CompilerMetrics.count(CompilerMetrics.SYMBOL_INSERTS);
+        if (symbolCount == nameIds.length) {
+            int newSize = nameIds.length == 0 ? 1 : nameIds.length * 2;
+            nameIds = Arrays.copyOf(nameIds, newSize);
+            classifications = Arrays.copyOf(classifications, newSize);
+            values = Arrays.copyOf(values, newSize);
+            addresses = Arrays.copyOf(addresses, newSize);
+            segments = Arrays.copyOf(segments, newSize);
+            if (valueTexts != null) {
+                valueTexts = Arrays.copyOf(valueTexts, newSize);
+            }
+        }
+
+        int index = symbolCount++;
+        int nameId = names.intern(name);
+        nameIds[index] = nameId;
+        classifications[index] = (byte) classification.ordinal();
+        values[index] = parseValue(valueText);
+        if (values[index] == VALUE_TEXT) {
+            if (valueTexts == null) {
+                valueTexts = new String[nameIds.length];
+            }
+            valueTexts[index] = valueText;
+        }
+        addresses[index] = address;
+        segments[index] = segment;
+
+        entryByNameId = fitIndex(entryByNameId, nameId);
+        if (!liveEntry(entryByNameId[nameId] - 1, nameId)) {
+            entryByNameId[nameId] = index + 1;
+        }
+        if (classification == Classification.NUMERIC_LITERAL) {
+            int valueId = names.intern(valueText);
+            literalByValueId = fitIndex(literalByValueId, valueId);
+            if (!liveEntry(literalByValueId[valueId] - 1, valueId)) {
+                literalByValueId[valueId] = index + 1;
+            }
+        }
+    }
+
+    // Copies entry index of another table onto the end of this one
+    void addEntry(SymbolTable other, int index) {
+        addSymbol(other.symbolName(index), other.classification(index), other.valueText(index), other.addresses[index], other.segments[index]);
+    }
+
+    // True when an index slot points at a current entry with that name id. Rewinding leaves
+    // slots pointing past the end or at entries that were written again with another name.
+    boolean liveEntry(int index, int nameId) {
+        return index >= 0 && index < symbolCount && nameIds[index] == nameId;
+    }
+
+    // Drops every entry from count on, used to re-run the state machine from an earlier token.
+    // The dropped entries stay in the arrays until they are written again.
+    void rewind(int count) {
+        symbolCount = count;
+        cachedEntryLimit = Math.min(cachedEntryLimit, count);
+    }
+
+    // Takes back the entries up to count after a re-run wrote the same ones again
+    void restore(int count) {
+        symbolCount = count;
+        cachedEntryLimit = Integer.MAX_VALUE;
+    }
+
+    // After a re-run that ended with different entries
+    void clearEntryCache() {
+        Arrays.fill(entryById, 0);
+        cachedEntryLimit = Integer.MAX_VALUE;
+    }
+
+    // Grows an index so id fits, x2
+    static int[] fitIndex(int[] index, int id) {
+        if (id < index.length) {
+            return index;
+        }
+        int newSize = index.length == 0 ? START_SIZE : index.length;
+        while (newSize <= id) {
+            newSize *= 2;
+        }
+        return Arrays.copyOf(index, newSize);
+    }
+
+    // Plain decimal text that fits a long is kept as the number, anything else keeps its text.
+    // A leading '-' is allowed for the negative literals the optimizer folds to.
+    static long parseValue(String text) {
+        if (text.equals("?")) {
+            return VALUE_UNKNOWN;
+        }
+        if (text.isEmpty()) {
+            return VALUE_NONE;
+        }
+        int first = text.charAt(0) == '-' ? 1 : 0;
+        int digits = text.length() - first;
+        if (digits == 0 || digits > 18 || (digits > 1 && text.charAt(first) == '0') || text.equals("-0")) {
+            return VALUE_TEXT;
+        }
+        long value = 0;
+        for (int i = first; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return VALUE_TEXT;
+            }
+            value = value * 10 + (ch - '0');
+        }
+        return first == 1 ? -value : value;
+    }
+
+    static byte segmentCode(String segment) {
+        for (byte code = 0; code < SEGMENTS.length; code++) {
+            if (SEGMENTS[code].equals(segment)) {
+                return code;
             }
-            symbolEntries = bigger;
         }
+        return -1;
+    }
+
+    public String symbolName(int index) {
+        return names.name(nameIds[index]);
+    }
+
+    public Classification classification(int index) {
+        return CLASSIFICATIONS[classifications[index]];
+    }
+
+    public String classificationName(int index) {
+        return classification(index).getOutputName();
+    }
 
-        symbolEntries[symbolCount++] = new SymbolTableEntry(name, classText, valueText, address, segment);
+    // True when the value is a number, value(index) then holds it
+    public boolean hasNumericValue(int index) {
+        return values[index] > VALUE_TEXT;
+    }
+
+    public long value(int index) {
+        return values[index];
+    }
+
+    public String valueText(int index) {
+        long value = values[index];
+        if (value == VALUE_UNKNOWN) {
+            return "?";
+        }
+        if (value == VALUE_NONE) {
+            return "";
+        }
+        if (value == VALUE_TEXT) {
+            return valueTexts[index];
+        }
+        return Long.toString(value);
+    }
+
+    public int memoryAddress(int index) {
+        return addresses[index];
+    }
+
+    public String memorySegment(int index) {
+        return SEGMENTS[segments[index]];
+    }
+
+    // Same entry: name, classification, value, address and segment all equal
+    boolean sameEntry(int index, SymbolTable other, int otherIndex) {
+        return symbolName(index).equals(other.symbolName(otherIndex))
+            && classifications[index] == other.classifications[otherIndex]
+            && values[index] == other.values[otherIndex]
+            && (values[index] != VALUE_TEXT || valueTexts[index].equals(other.valueTexts[otherIndex]))
+            && addresses[index] == other.addresses[otherIndex]
+            && segments[index] == other.segments[otherIndex];
     }
 
     // Maps a token type to a column in the state table
@@ -145,145 +357,225 @@ public class SymbolTable {
 
     // Finds the index of a symbol in the table, or -1 if not found
     static int lookupSymbolIndex(SymbolTable table, String name) {
-        for (int i = 0; i < table.symbolCount; i++) {
-            if (table.symbolEntries[i].symbolName.equals(name)) {
-                return i;
-            }
+        int nameId = table.names.find(name);
+        if (nameId < 0 || nameId >= table.entryByNameId.length) {
+            return -1;
         }
-        return -1;
+        int index = table.entryByNameId[nameId] - 1;
+        return table.liveEntry(index, nameId) ? index : -1;
     }
 
     static boolean containsLiteral(SymbolTable table, String value) {
-        for (int i = 0; i < table.symbolCount; i++) {
-            SymbolTableEntry entry = table.symbolEntries[i];
-            if ("Numeric literal".equals(entry.classification) && entry.valueText.equals(value)) {
-                return true;
-            }
+        int valueId = table.names.find(value);
+        return valueId >= 0 && valueId < table.literalByValueId.length && table.liveEntry(table.literalByValueId[valueId] - 1, valueId);
+    }
+
+    // Lookup by interned id when the token has one, the hash index is only probed on a cache miss
+    int symbolIndex(String name, int symbolId) {
+        CompilerMetrics.count(CompilerMetrics.SYMBOL_LOOKUPS);
+        if (symbolId < 0) {
+            return lookupSymbolIndex(this, name);
+        }
+        entryById = fitIndex(entryById, symbolId);
+        int cached = entryById[symbolId];
+        if (cached != 0 && cached - 1 < cachedEntryLimit) {
+            return cached - 1;
+        }
+        int index = lookupSymbolIndex(this, name);
+        if (index >= 0) {
+            entryById[symbolId] = index + 1;
+        }
+        return index;
+    }
+
+    // Literal entries are named by their value and no other entry has a number for a name,
+    // so the name lookup finds the same literal the value index would
+    boolean hasLiteral(String value, int symbolId) {
+        int index = symbolIndex(value, symbolId);
+        if (index >= 0 && classifications[index] == Classification.NUMERIC_LITERAL.ordinal()) {
+            return true;
         }
-        return false;
+        return containsLiteral(this, value);
     }
 
+    // Reserves the listing's temps, a guess from the operator count; CodeGenerator drops them and
+    // adds as many as the code it emits needs
     static void addTempSymbols(SymbolTable table, int maxOperatorCount) {
         int tempCount = maxOperatorCount;
         if (tempCount > 3) {
             tempCount = 3;
         }
+        table.firstTempEntry = table.symbolCount;
         for (int i = 1; i <= tempCount; i++) {
             String tempName = "Temp" + i;
             if (lookupSymbolIndex(table, tempName) < 0) {
-                table.addSymbol(tempName, "Var", "?", table.dataAddress, "DS");
+                table.addSymbol(tempName, Classification.VAR, "?", table.dataAddress, SEGMENT_DS);
                 table.dataAddress += 2;
             }
         }
+        table.tempEntryCount = table.symbolCount - table.firstTempEntry;
+    }
+
+    // Takes back the reserved temps and their DS words. Only while they are still the last entries,
+    // so no entry added after them loses its address.
+    void dropTempSymbols() {
+        if (tempEntryCount == 0 || firstTempEntry + tempEntryCount != symbolCount) {
+            return;
+        }
+        dataAddress -= 2 * tempEntryCount;
+        rewind(firstTempEntry);
+        tempEntryCount = 0;
     }
 
     // Determines the classification of an identifier use based on the symbol table
-    static String classificationForIdentifier(SymbolTable table, String name) {
-        int index = lookupSymbolIndex(table, name);
+    static Classification classificationForIdentifier(SymbolTable table, String name) {
+        return classificationForIdentifier(table, name, -1);
+    }
+
+    static Classification classificationForIdentifier(SymbolTable table, String name, int symbolId) {
+        int index = table.symbolIndex(name, symbolId);
         if (index < 0) {
-            return "Var";
+            return Classification.VAR;
         }
 
         // if found, check if its a procedure or program name, default to Var
-        String knownClass = table.symbolEntries[index].classification;
-        if ("Procedure".equals(knownClass)) {
-            return "Procedure";
+        Classification known = table.classification(index);
+        if (known == Classification.PROCEDURE || known == Classification.PROGRAM_NAME) {
+            return known;
         }
-        if ("$program name".equals(knownClass)) {
-            return "$program name";
-        }
-        return "Var";
+        return Classification.VAR;
     }
-    //
+    // Builds the table from a finished token array
     public static SymbolTable buildFromTokens(Token[] tokens) {
         SymbolTable table = new SymbolTable();
-        int state = STATE_DEFAULT;
-        String pendingConstName = null;
+        for (int i = 0; i < tokens.length; i++) {
+            table.acceptToken(tokens[i]);
+        }
+        table.finishTokens();
+        return table;
+    }
 
-        int currentOperatorCount = 0;
-        int maxOperatorCount = 0;
+    // Builds the table from the compact token stream, recording each token's classification in it
+    public static SymbolTable buildFromTokens(PackedTokens tokens) {
+        SymbolTable table = new SymbolTable();
+        for (int i = 0; i < tokens.count; i++) {
+            table.acceptToken(tokens, i);
+        }
+        table.finishTokens();
+        return table;
+    }
 
-        // Iterate through tokens and build the symbol table based on the state machine
-        for (int i = 0; i < tokens.length; i++) {
-            Token token = tokens[i];
+    // Runs one token of the compact stream through the state machine
+    void acceptToken(PackedTokens tokens, int index) {
+        TokenType type = tokens.type(index);
+        Actions action = nextAction(type);
+        if (tokens.interner != idInterner) {
+            // ids are only meaningful within one interner
+            idInterner = tokens.interner;
+            entryById = new int[0];
+        }
+        // the lexeme is only looked up when the action needs it
+        String lexeme = action == Actions.NONE ? null : tokens.lexeme(index);
+        tokens.classifications[index] = (byte) applyAction(action, type, lexeme, tokens.symbolIds[index]).ordinal();
+    }
+
+    // Runs one token through the state machine, so the table can be built while scanning
+    public void acceptToken(Token token) {
+        Actions action = nextAction(token.type);
+        Classification assigned = applyAction(action, token.type, token.lexeme, -1);
+        if (assigned != Classification.DEFAULT) {
+            token.classification = assigned.getOutputName();
+        }
+    }
+
+    // Counts operators for temps and looks up the action for the token in the current state
+    Actions nextAction(TokenType type) {
+        if (type == TokenType.ADD_OP || type == TokenType.SUB_OP || type == TokenType.MULT_OP || type == TokenType.DIV_OP) {
+            currentOperatorCount++;
+        }
 
-            if (token.type == TokenType.ADD_OP || token.type == TokenType.SUB_OP || token.type == TokenType.MULT_OP || token.type == TokenType.DIV_OP) {
-                currentOperatorCount++;
+        if (type == TokenType.SEMICOLON || type == TokenType.RIGHT_BRACE || type == TokenType.THEN || type == TokenType.DO || type == TokenType.EOF) {
+            if (currentOperatorCount > maxOperatorCount) {
+                maxOperatorCount = currentOperatorCount;
             }
+            currentOperatorCount = 0;
+        }
+
+        return actionTable[buildState][tokenToColumn(type)];
+    }
+
+    // Performs the action, moves to the next state and returns the token's classification
+    Classification applyAction(Actions action, TokenType type, String lexeme, int symbolId) {
+        Classification assigned = Classification.DEFAULT;
 
-            if (token.type == TokenType.SEMICOLON || token.type == TokenType.RIGHT_BRACE || token.type == TokenType.THEN || token.type == TokenType.DO || token.type == TokenType.EOF) {
-                if (currentOperatorCount > maxOperatorCount) {
-                    maxOperatorCount = currentOperatorCount;
+        // Perform actions based on the current state and token type
+        switch (action) {
+            case PROGRAM_NAME:
+                assigned = Classification.PROGRAM_NAME;
+                if (symbolIndex(lexeme, symbolId) < 0) {
+                    addSymbol(lexeme, Classification.PROGRAM_NAME, "", codeAddress, SEGMENT_CS);
+                    codeAddress += 2;
                 }
-                currentOperatorCount = 0;
-            }
+                break;
 
-            int column = tokenToColumn(token.type);
-            Actions action = actionTable[state][column];
+            case PROCEDURE_NAME:
+                assigned = Classification.PROCEDURE;
+                if (symbolIndex(lexeme, symbolId) < 0) {
+                    addSymbol(lexeme, Classification.PROCEDURE, "?", codeAddress, SEGMENT_CS);
+                    codeAddress += 2;
+                }
+                break;
 
-            // Perform actions based on the current state and token type
-            switch (action) {
-                case PROGRAM_NAME:
-                    token.classification = "$program name";
-                    if (lookupSymbolIndex(table, token.lexeme) < 0) {
-                        table.addSymbol(token.lexeme, "$program name", "", table.codeAddress, "CS");
-                        table.codeAddress += 2;
-                    }
-                    break;
+            case CONST_NAME:
+                assigned = Classification.CONSTVAR;
+                pendingConstName = lexeme;
+                pendingConstId = symbolId;
+                break;
 
-                case PROCEDURE_NAME:
-                    token.classification = "Procedure";
-                    if (lookupSymbolIndex(table, token.lexeme) < 0) {
-                        table.addSymbol(token.lexeme, "Procedure", "?", table.codeAddress, "CS");
-                        table.codeAddress += 2;
+            case CONST_VALUE:
+                if (pendingConstName != null) {
+                    assigned = Classification.NUMERIC_LITERAL;
+                    if (symbolIndex(pendingConstName, pendingConstId) < 0) {
+                        addSymbol(pendingConstName, Classification.CONSTVAR, lexeme, dataAddress, SEGMENT_DS);
+                        dataAddress += 2;
                     }
-                    break;
-
-                case CONST_NAME:
-                    token.classification = "Constvar";
-                    pendingConstName = token.lexeme;
-                    break;
-
-                case CONST_VALUE:
-                    if (pendingConstName != null) {
-                        token.classification = "Numeric literal";
-                        if (lookupSymbolIndex(table, pendingConstName) < 0) {
-                            table.addSymbol(pendingConstName, "Constvar", token.lexeme, table.dataAddress, "DS");
-                            table.dataAddress += 2;
-                        }
-                        pendingConstName = null;
-                    }
-                    break;
-                case VAR_NAME:
-                    token.classification = "Var";
-                    if (lookupSymbolIndex(table, token.lexeme) < 0) {
-                        table.addSymbol(token.lexeme, "Var", "?", table.dataAddress, "DS");
-                        table.dataAddress += 2;
-                    }
-                    break;
-                case NUMBER_LITERAL:
-                    token.classification = "Numeric literal";
-                    if (!containsLiteral(table, token.lexeme)) {
-                        table.addSymbol(token.lexeme, "Numeric literal", token.lexeme, table.dataAddress, "DS");
-                        table.dataAddress += 2;
-                    }
-                    break;
-
-                case IDENTIFIER_USE:
-                    token.classification = classificationForIdentifier(table, token.lexeme);
-                    break;
-                case NONE:
-                default:
-                    break;
-            }
-            // Transition to the next state
-            state = stateTable[state][column];
-            if (state == STATE_DEFAULT) {
-                pendingConstName = null;
-            }
+                    pendingConstName = null;
+                    pendingConstId = -1;
+                }
+                break;
+            case VAR_NAME:
+                assigned = Classification.VAR;
+                if (symbolIndex(lexeme, symbolId) < 0) {
+                    addSymbol(lexeme, Classification.VAR, "?", dataAddress, SEGMENT_DS);
+                    dataAddress += 2;
+                }
+                break;
+            case NUMBER_LITERAL:
+                assigned = Classification.NUMERIC_LITERAL;
+                if (!hasLiteral(lexeme, symbolId)) {
+                    addSymbol(lexeme, Classification.NUMERIC_LITERAL, lexeme, dataAddress, SEGMENT_DS);
+                    dataAddress += 2;
+                }
+                break;
+
+            case IDENTIFIER_USE:
+                assigned = classificationForIdentifier(this, lexeme, symbolId);
+                break;
+            case NONE:
+            default:
+                break;
         }
-        // After  all tokens, add t1,t2,t3... for intermediate code generation
-        addTempSymbols(table, maxOperatorCount);
-        return table;
+        // Transition to the next state
+        buildState = stateTable[buildState][tokenToColumn(type)];
+        if (buildState == STATE_DEFAULT) {
+            pendingConstName = null;
+            pendingConstId = -1;
+        }
+        return assigned;
+    }
+
+    // After all tokens, add t1,t2,t3... for intermediate code generation
+    public void finishTokens() {
+        addTempSymbols(this, maxOperatorCount);
     }
-} 
\ No newline at end of file
+}
@@ -1,27 +1,54 @@
 //SymbolTableWriter.java
-import java.io.FileWriter;
 import java.io.IOException;
 //
 public class SymbolTableWriter {
     // Writes the symbol table to a file nicely fromatted
     public static void writeToFile(SymbolTable symbolTable, String filename) throws IOException {
-        try (FileWriter writer = new FileWriter(filename)) {
-            writer.write("Symbol Table:\n");
+        write(symbolTable, OutputBuffer.toFile(filename));
+    }
+
+    // Writes the table to any output and closes it
+    static void write(SymbolTable symbolTable, OutputBuffer destination) throws IOException {
+        try (OutputBuffer writer = destination) {
+            writer.append("Symbol Table:\n");
             // spacing for columns: Symbol(24)Classification(18),Value (10),Address(8),Segment(7)
-            writer.write(String.format("%-24s %-18s %-10s %-8s %-7s\n",
-                "Symbol", "Classification", "Value", "Address", "Segment"));
-            writer.write("-".repeat(75) + "\n");
+            writeRow(writer, "Symbol", "Classification", "Value", "Address", "Segment");
+            writer.appendRepeated('-', 75);
+            writer.append("\n");
 
+            // rows go out column by column from the table's arrays, numbers without a String
             for (int i = 0; i < symbolTable.symbolCount; i++) {
-                SymbolTable.SymbolTableEntry entry = symbolTable.symbolEntries[i];
-                writer.write(String.format("%-24s %-18s %-10s %-8d %-7s\n",
-                    entry.symbolName,
-                    entry.classification,
-                    entry.valueText,
-                    entry.memoryAddress,
-                    entry.memorySegment));
+                writer.appendPadded(symbolTable.symbolName(i), 24);
+                writer.appendByte(' ');
+                writer.appendPadded(symbolTable.classificationName(i), 18);
+                writer.appendByte(' ');
+                if (symbolTable.hasNumericValue(i)) {
+                    writer.appendPadded(symbolTable.value(i), 10);
+                } else {
+                    writer.appendPadded(symbolTable.valueText(i), 10);
+                }
+                writer.appendByte(' ');
+                writer.appendPadded(symbolTable.memoryAddress(i), 8);
+                writer.appendByte(' ');
+                writer.appendPadded(symbolTable.memorySegment(i), 7);
+                writer.append("\n");
             }
-            writer.write("-".repeat(75) + "\n");
+            writer.appendRepeated('-', 75);
+            writer.append("\n");
         }
     }
+
+    // Layout is "%-24s %-18s %-10s %-8s %-7s\n"
+    static void writeRow(OutputBuffer writer, String symbol, String classification, String value, String address, String segment) throws IOException {
+        writer.appendPadded(symbol, 24);
+        writer.appendByte(' ');
+        writer.appendPadded(classification, 18);
+        writer.appendByte(' ');
+        writer.appendPadded(value, 10);
+        writer.appendByte(' ');
+        writer.appendPadded(address, 8);
+        writer.appendByte(' ');
+        writer.appendPadded(segment, 7);
+        writer.append("\n");
+    }
 }
@@ -0,0 +1,165 @@
+//SyntaxTree.java
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Parse tree kept in flat arrays instead of one object per node. Node n is kinds[n] with the
+// token it came from in tokenIndexes[n] (-1 if none); its children are a chain starting at
+// firstChildren[n] and linked through nextSiblings, -1 ends a chain.
+public class SyntaxTree {
+    static final int START_SIZE = 64;
+    // Node kinds, the token of each is noted after it
+    static final int PROGRAM = 0;      // class name, child BLOCK
+    static final int BLOCK = 1;        // no token, children CONST VAR PROCEDURE and statements in order
+    static final int CONST = 2;        // constant name, child NUMBER
+    static final int VAR = 3;          // variable name
+    static final int PROCEDURE = 4;    // procedure name, child BLOCK
+    static final int ASSIGN = 5;       // target name, child expression
+    static final int CALL = 6;         // procedure name
+    static final int IF = 7;           // children condition, statement
+    static final int WHILE = 8;        // children condition, statement
+    static final int COMPOUND = 9;     // children statements
+    static final int ODD = 10;         // child expression
+    static final int RELATION = 11;    // relational operator, children left, right
+    static final int BINARY = 12;      // arithmetic operator, children left, right
+    static final int NEGATE = 13;      // '-', child expression
+    static final int NAME = 14;        // identifier
+    static final int NUMBER = 15;      // numeric literal
+    static final String[] KIND_NAMES = {
+        "Program", "Block", "Const", "Var", "Procedure", "Assign", "Call", "If", "While",
+        "Compound", "Odd", "Relation", "Binary", "Negate", "Name", "Number"
+    };
+
+    PackedTokens tokens;
+    int[] kinds;
+    int[] tokenIndexes;
+    int[] firstChildren;
+    int[] lastChildren;
+    int[] nextSiblings;
+    int count;
+    int root;
+    List<SyntaxError> errors;
+
+    // A token the parser could not fit, and what it expected there
+    public static class SyntaxError {
+        public int tokenIndex;
+        public String message;
+
+        SyntaxError(int tokenIndex, String message) {
+            this.tokenIndex = tokenIndex;
+            this.message = message;
+        }
+    }
+
+    SyntaxTree(PackedTokens tokens, int startSize) {
+        this.tokens = tokens;
+        kinds = new int[startSize];
+        tokenIndexes = new int[startSize];
+        firstChildren = new int[startSize];
+        lastChildren = new int[startSize];
+        nextSiblings = new int[startSize];
+        count = 0;
+        root = -1;
+        errors = new ArrayList<>();
+    }
+
+    // Adds a node with no children, resizing x2
+    int addNode(int kind, int tokenIndex) {
+        if (count == kinds.length) {
+            int newSize = kinds.length == 0 ? 1 : kinds.length * 2;
+            kinds = Arrays.copyOf(kinds, newSize);
+            tokenIndexes = Arrays.copyOf(tokenIndexes, newSize);
+            firstChildren = Arrays.copyOf(firstChildren, newSize);
+            lastChildren = Arrays.copyOf(lastChildren, newSize);
+            nextSiblings = Arrays.copyOf(nextSiblings, newSize);
+        }
+        kinds[count] = kind;
+        tokenIndexes[count] = tokenIndex;
+        firstChildren[count] = -1;
+        lastChildren[count] = -1;
+        nextSiblings[count] = -1;
+        return count++;
+    }
+
+    // Appends child to the end of parent's children, a missing child (-1) is left out
+    void addChild(int parent, int child) {
+        if (child < 0) {
+            return;
+        }
+        if (firstChildren[parent] < 0) {
+            firstChildren[parent] = child;
+        } else {
+            nextSiblings[lastChildren[parent]] = child;
+        }
+        lastChildren[parent] = child;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int kind(int node) {
+        return kinds[node];
+    }
+
+    public int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    public int tokenIndex(int node) {
+        return tokenIndexes[node];
+    }
+
+    // Text of the node's token, empty for nodes without one
+    public String text(int node) {
+        return tokenIndexes[node] < 0 ? "" : tokens.lexeme(tokenIndexes[node]);
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    // Source line of a token, counted from 1
+    public int line(int tokenIndex) {
+        CharacterReader source = tokens.source;
+        int end = Math.min(tokens.starts[tokenIndex], source.length);
+        int line = 1;
+        for (int i = 0; i < end; i++) {
+            if (source.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return line;
+    }
+
+    public String describe(SyntaxError error) {
+        return "line " + line(error.tokenIndex) + ": " + error.message;
+    }
+
+    // Indented outline of the tree, one node per line
+    public String dump() {
+        StringBuilder output = new StringBuilder();
+        if (root >= 0) {
+            dump(output, root, 0);
+        }
+        return output.toString();
+    }
+
+    void dump(StringBuilder output, int node, int depth) {
+        for (int i = 0; i < depth; i++) {
+            output.append("  ");
+        }
+        output.append(KIND_NAMES[kinds[node]]);
+        if (tokenIndexes[node] >= 0) {
+            output.append(' ').append(text(node));
+        }
+        output.append('\n');
+        for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+            dump(output, child, depth + 1);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+//TokenSink.java
+import java.io.IOException;
+
+// Receives tokens one at a time as the scanner produces them
+public interface TokenSink {
+    void acceptToken(Token token) throws IOException;
+}
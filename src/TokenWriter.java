@@ -1,14 +1,62 @@
 //TokenWriter.java
-import java.io.FileWriter;
+import java.io.Closeable;
 import java.io.IOException;
 
-public class TokenWriter {
+public class TokenWriter implements TokenSink, Closeable {
+    // rows end the way %n did
+    static final String LINE_END = System.lineSeparator();
+    OutputBuffer tokenWriter;
+
+    // Opens the token file and writes the header, rows are added with acceptToken
+    public TokenWriter(String filename) throws IOException {
+        this(OutputBuffer.toFile(filename));
+    }
+
+    TokenWriter(OutputBuffer output) throws IOException {
+        tokenWriter = output;
+        tokenWriter.appendPadded("Token", 24);
+        tokenWriter.append(" Classification" + LINE_END);
+        tokenWriter.appendRepeated('-', 52);
+        tokenWriter.append("\n");
+    }
+
+    // Layout is "%-24s %s%n"
+    public void acceptToken(Token token) throws IOException {
+        tokenWriter.appendPadded(token.lexeme, 24);
+        tokenWriter.appendByte(' ');
+        tokenWriter.append(token.classification);
+        tokenWriter.append(LINE_END);
+    }
+
+    public void close() throws IOException {
+        tokenWriter.close();
+    }
+
     public static void writeToFile(Token[] tokens, String filename) throws IOException {
-        try (FileWriter tokenWriter = new FileWriter(filename)) {
-            tokenWriter.write(String.format("%-24s %s%n", "Token", "Classification"));
-            tokenWriter.write("-".repeat(52) + "\n");
+        try (TokenWriter writer = new TokenWriter(filename)) {
             for (int i = 0; i < tokens.length; i++) {
-                tokenWriter.write(String.format("%-24s %s%n", tokens[i].lexeme, tokens[i].classification));
+                writer.acceptToken(tokens[i]);
+            }
+        }
+    }
+
+    public static void writeToFile(PackedTokens tokens, String filename) throws IOException {
+        write(tokens, OutputBuffer.toFile(filename));
+    }
+
+    // Writes the token file to any output and closes it
+    static void write(PackedTokens tokens, OutputBuffer destination) throws IOException {
+        try (TokenWriter writer = new TokenWriter(destination)) {
+            OutputBuffer output = writer.tokenWriter;
+            for (int i = 0; i < tokens.count; i++) {
+                if (tokens.types[i] == TokenType.EOF.ordinal()) {
+                    output.appendPadded("EOF", 24);
+                } else {
+                    output.appendPadded(tokens.source, tokens.starts[i], tokens.starts[i] + tokens.lengths[i], 24);
+                }
+                output.appendByte(' ');
+                output.append(tokens.classification(i));
+                output.append(LINE_END);
             }
         }
     }
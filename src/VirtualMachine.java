@@ -0,0 +1,283 @@
+//VirtualMachine.java
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Runs quads encoded into one dense int[]: four ints per instruction (op, a, b, r).
+// Operands are memory slots, a symbol's DS address / 2, so memory has the symbol table's layout
+// and starts with every Constvar and literal holding its value. Jump targets are code offsets;
+// a CALL holds the offset of the procedure, found through its CS address.
+// The interpreter is one loop over a switch on the op, which the JIT turns into a jump table.
+public class VirtualMachine {
+    static final int INSTRUCTION_SIZE = 4;
+    static final int MAX_CALL_DEPTH = 1 << 16;
+    static final long DEFAULT_STEP_LIMIT = 100_000_000L;
+    // runCompiled interprets a program this many times before compiling it. HotSpot runs a new
+    // class in its own bytecode interpreter until the methods have been called a few hundred
+    // times, and until then the bytecode is slower than this loop, which is already compiled.
+    static final int BYTECODE_THRESHOLD = 500;
+    // How a run ended
+    static final int HALTED = 0;
+    static final int STEP_LIMIT = 1;
+    static final int DIVIDE_BY_ZERO = 2;
+    static final int STACK_OVERFLOW = 3;
+    static final String[] STATUS_NAMES = {"halted", "step limit reached", "division by zero", "call stack overflow"};
+
+    SymbolTable symbolTable;
+    int[] code;
+    int entry;
+    // Initial memory, copied for each run
+    int[] initialMemory;
+    int[] memory;
+    int[] returnStack;
+    long steps;
+    int status;
+    // Quads waiting to be compiled by JitCompiler, null once they have been or if bytecode is off
+    Quads quads;
+    int compiledRuns;
+    // The program compiled by JitCompiler, null until compileToBytecode succeeds
+    MethodHandle compiled;
+
+    // Encodes the quads; the symbol table must be the one they were generated against
+    public static VirtualMachine load(Quads quads) {
+        VirtualMachine machine = new VirtualMachine();
+        SymbolTable table = quads.symbolTable;
+        machine.symbolTable = table;
+
+        // CS address -> code offset of the procedure at that address
+        int[] codeByAddress = new int[table.codeAddress / 2 + 1];
+        for (int i = 0; i < table.symbolCount; i++) {
+            int quad = quads.procedureEntry(i);
+            if (quad >= 0 && table.segments[i] == SymbolTable.SEGMENT_CS) {
+                codeByAddress[table.memoryAddress(i) / 2] = quad * INSTRUCTION_SIZE;
+            }
+        }
+
+        int[] code = new int[quads.count * INSTRUCTION_SIZE];
+        for (int i = 0; i < quads.count; i++) {
+            int op = quads.ops[i];
+            int at = i * INSTRUCTION_SIZE;
+            code[at] = op;
+            if (op == Quads.CALL) {
+                code[at + 1] = codeByAddress[table.memoryAddress(quads.arg1s[i]) / 2];
+                continue;
+            }
+            code[at + 1] = slot(table, quads.arg1s[i]);
+            code[at + 2] = slot(table, quads.arg2s[i]);
+            code[at + 3] = Quads.isJump(op) ? quads.results[i] * INSTRUCTION_SIZE : slot(table, quads.results[i]);
+        }
+        machine.code = code;
+        machine.entry = quads.mainEntry * INSTRUCTION_SIZE;
+
+        machine.initialMemory = new int[table.dataAddress / 2 + 1];
+        for (int i = 0; i < table.symbolCount; i++) {
+            if (table.segments[i] == SymbolTable.SEGMENT_DS && table.hasNumericValue(i)) {
+                machine.initialMemory[table.memoryAddress(i) / 2] = (int) table.value(i);
+            }
+        }
+        machine.memory = new int[machine.initialMemory.length];
+        machine.returnStack = new int[64];
+        return machine;
+    }
+
+    static int slot(SymbolTable table, int symbol) {
+        return symbol < 0 ? 0 : table.memoryAddress(symbol) / 2;
+    }
+
+    // Runs from the main entry with fresh memory, stopping after stepLimit instructions
+    public int run(long stepLimit) {
+        System.arraycopy(initialMemory, 0, memory, 0, memory.length);
+        int[] code = this.code;
+        int[] memory = this.memory;
+        int[] returnStack = this.returnStack;
+        int depth = 0;
+        int pc = entry;
+        long remaining = stepLimit;
+
+        while (true) {
+            if (--remaining < 0) {
+                return finish(STEP_LIMIT, stepLimit - remaining - 1);
+            }
+            switch (code[pc]) {
+                case Quads.ASSIGN:
+                    memory[code[pc + 3]] = memory[code[pc + 1]];
+                    pc += INSTRUCTION_SIZE;
+                    break;
+                case Quads.ADD:
+                    memory[code[pc + 3]] = memory[code[pc + 1]] + memory[code[pc + 2]];
+                    pc += INSTRUCTION_SIZE;
+                    break;
+                case Quads.SUB:
+                    memory[code[pc + 3]] = memory[code[pc + 1]] - memory[code[pc + 2]];
+                    pc += INSTRUCTION_SIZE;
+                    break;
+                case Quads.MUL:
+                    memory[code[pc + 3]] = memory[code[pc + 1]] * memory[code[pc + 2]];
+                    pc += INSTRUCTION_SIZE;
+                    break;
+                case Quads.DIV: {
+                    int divisor = memory[code[pc + 2]];
+                    if (divisor == 0) {
+                        return finish(DIVIDE_BY_ZERO, stepLimit - remaining);
+                    }
+                    memory[code[pc + 3]] = memory[code[pc + 1]] / divisor;
+                    pc += INSTRUCTION_SIZE;
+                    break;
+                }
+                case Quads.NEG:
+                    memory[code[pc + 3]] = -memory[code[pc + 1]];
+                    pc += INSTRUCTION_SIZE;
+                    break;
+                case Quads.JMP:
+                    pc = code[pc + 3];
+                    break;
+                case Quads.JEQ:
+                    pc = memory[code[pc + 1]] == memory[code[pc + 2]] ? code[pc + 3] : pc + INSTRUCTION_SIZE;
+                    break;
+                case Quads.JNE:
+                    pc = memory[code[pc + 1]] != memory[code[pc + 2]] ? code[pc + 3] : pc + INSTRUCTION_SIZE;
+                    break;
+                case Quads.JLT:
+                    pc = memory[code[pc + 1]] < memory[code[pc + 2]] ? code[pc + 3] : pc + INSTRUCTION_SIZE;
+                    break;
+                case Quads.JLE:
+                    pc = memory[code[pc + 1]] <= memory[code[pc + 2]] ? code[pc + 3] : pc + INSTRUCTION_SIZE;
+                    break;
+                case Quads.JGT:
+                    pc = memory[code[pc + 1]] > memory[code[pc + 2]] ? code[pc + 3] : pc + INSTRUCTION_SIZE;
+                    break;
+                case Quads.JGE:
+                    pc = memory[code[pc + 1]] >= memory[code[pc + 2]] ? code[pc + 3] : pc + INSTRUCTION_SIZE;
+                    break;
+                case Quads.JEVEN:
+                    pc = (memory[code[pc + 1]] & 1) == 0 ? code[pc + 3] : pc + INSTRUCTION_SIZE;
+                    break;
+                case Quads.CALL:
+                    if (depth == returnStack.length) {
+                        if (depth == MAX_CALL_DEPTH) {
+                            return finish(STACK_OVERFLOW, stepLimit - remaining);
+                        }
+                        returnStack = Arrays.copyOf(returnStack, depth * 2);
+                        this.returnStack = returnStack;
+                    }
+                    returnStack[depth++] = pc + INSTRUCTION_SIZE;
+                    pc = code[pc + 1];
+                    break;
+                case Quads.RETURN:
+                    if (depth == 0) {
+                        return finish(HALTED, stepLimit - remaining);
+                    }
+                    pc = returnStack[--depth];
+                    break;
+                default:
+                    return finish(HALTED, stepLimit - remaining);
+            }
+        }
+    }
+
+    // Same result as run, from bytecode once the program has run BYTECODE_THRESHOLD times here
+    // and compiles. The interpreter reruns anything the bytecode cannot report exactly: a division
+    // by zero, a call past MAX_CALL_DEPTH, or a recursion deeper than the JVM's own stack.
+    // After a step limit only status and steps match, memory holds wherever the bytecode stopped.
+    public int runCompiled(long stepLimit) {
+        if (quads != null && ++compiledRuns >= BYTECODE_THRESHOLD) {
+            compileToBytecode();
+        }
+        if (compiled == null) {
+            return run(stepLimit);
+        }
+        System.arraycopy(initialMemory, 0, memory, 0, memory.length);
+        try {
+            long fuel = (long) compiled.invokeExact(memory, stepLimit, 0);
+            return finish(HALTED, stepLimit - fuel);
+        } catch (JitCompiler.StepLimitReached e) {
+            return finish(STEP_LIMIT, stepLimit);
+        } catch (JitCompiler.CallDepthExceeded | ArithmeticException | StackOverflowError e) {
+            return run(stepLimit);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Compiled program failed", e);
+        }
+    }
+
+    // Compiles the quads now instead of after BYTECODE_THRESHOLD runs; false if they cannot be
+    boolean compileToBytecode() {
+        if (quads != null) {
+            compiled = JitCompiler.compile(quads);
+            quads = null;
+        }
+        return compiled != null;
+    }
+
+    int finish(int status, long steps) {
+        this.status = status;
+        this.steps = steps;
+        return status;
+    }
+
+    // Value of a DS symbol after the last run
+    public int valueOf(int symbolIndex) {
+        return memory[symbolTable.memoryAddress(symbolIndex) / 2];
+    }
+
+    // Parses, generates and optimizes a source program and loads it
+    static VirtualMachine compile(PackedTokens tokens) {
+        return compile(tokens, false);
+    }
+
+    // As compile, keeping the quads for runCompiled to turn into bytecode when toBytecode is set
+    static VirtualMachine compile(PackedTokens tokens, boolean toBytecode) {
+        SymbolTable table = SymbolTable.buildFromTokens(tokens);
+        Quads quads = CodeGenerator.generate(Parser.parse(tokens), table);
+        Optimizer.optimize(quads);
+        VirtualMachine machine = load(quads);
+        if (toBytecode) {
+            machine.quads = quads;
+        }
+        return machine;
+    }
+
+    // Usage: VirtualMachine [file] [stepLimit]
+    //        VirtualMachine --bench [programs] [sizeKB]
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--bench")) {
+            benchmark(args.length > 1 ? Integer.parseInt(args[1]) : 2000, args.length > 2 ? Integer.parseInt(args[2]) : 4);
+            return;
+        }
+        Path sourceFile = Path.of(args.length > 0 ? args[0] : "Program_Text.txt");
+        long stepLimit = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_STEP_LIMIT;
+        VirtualMachine machine = compile(new Scanner(CharacterReader.fromFile(sourceFile)).getPackedTokens());
+        machine.run(stepLimit);
+        System.out.println(STATUS_NAMES[machine.status] + " after " + machine.steps + " instructions");
+        SymbolTable table = machine.symbolTable;
+        for (int i = 0; i < table.symbolCount; i++) {
+            if (table.classification(i) == Classification.VAR && table.segments[i] == SymbolTable.SEGMENT_DS) {
+                System.out.println(table.symbolName(i) + " = " + machine.valueOf(i));
+            }
+        }
+    }
+
+    // Compiles and runs many small generated programs, reporting programs/s and instructions/s
+    static void benchmark(int programs, int sizeKB) {
+        String[] sources = new String[programs];
+        for (int i = 0; i < programs; i++) {
+            sources[i] = ProgramGenerator.generate(sizeKB * 1024, i + 1);
+        }
+        for (int round = 0; round < 3; round++) {
+            long instructions = 0;
+            long compileNanos = 0;
+            long runNanos = 0;
+            for (int i = 0; i < programs; i++) {
+                long start = System.nanoTime();
+                VirtualMachine machine = compile(new Scanner(sources[i]).getPackedTokens());
+                long loaded = System.nanoTime();
+                machine.run(DEFAULT_STEP_LIMIT);
+                runNanos += System.nanoTime() - loaded;
+                compileNanos += loaded - start;
+                instructions += machine.steps;
+            }
+            System.out.printf("%d programs: compile %.0f programs/s, run %.0f programs/s, %.1f M instructions/s%n",
+                programs, programs * 1e9 / compileNanos, programs * 1e9 / runNanos, instructions * 1e3 / runNanos);
+        }
+    }
+}